@@ -0,0 +1,295 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * appender that writes encoded events to a file in independently compressed blocks, each preceded by an index of the
+ * block's timestamps and of the values of selected structured MDC fields
+ * <p>
+ * use it with an encoder that writes one JSON event per line, like {@code LogstashEncoder} with
+ * {@link StructuredMdcJsonProvider}, and read the file with {@link BlockCompressedLogReader}, which skips blocks that
+ * cannot contain the events it is looking for. Indexed fields are given like {@code Order.customerId}, see
+ * {@link RateLimitingTurboFilter#addLimitBy(String)}.
+ * <p>
+ * a block is written when it holds {@code blockSize} bytes of uncompressed events, when its first event is older than
+ * {@code maxBlockAge} and when the appender is stopped. Events of a block that has not been written yet are lost if the
+ * JVM crashes. A block that was only partly written when the JVM crashed is cut off when the appender is started
+ * again, so that the following blocks can be read.
+ */
+public class BlockCompressedFileAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<MdcFieldPath> indexBy = new ArrayList<>();
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final Set<String> indexedValues = new HashSet<>();
+
+    private Encoder<ILoggingEvent> encoder;
+    private String file;
+    private int blockSize = 256 * 1024;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Duration maxBlockAge = Duration.buildBySeconds(30);
+    private OutputStream out;
+    private ScheduledFuture<?> blockAgeCheck;
+    private Deflater deflater;
+    private byte[] deflateBuffer;
+    private int eventCount;
+    private long minTimestamp;
+    private long maxTimestamp;
+    private long blockStartedAt; // System.nanoTime() of the block's first event
+
+    /**
+     * creates this appender according to logback's contract
+     */
+    public BlockCompressedFileAppender() {
+    }
+
+    @Override
+    public void start() {
+        if (encoder == null || file == null) {
+            addError("No encoder or file set for appender named [" + name + "].");
+            return;
+        }
+        if (blockSize < 1 || compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            addError("blockSize must be positive and compressionLevel between -1 and 9 for appender named [" + name + "].");
+            return;
+        }
+        try {
+            out = openFile(new File(file));
+        } catch (IOException e) {
+            addError("Cannot open " + file + " for appender named [" + name + "].", e);
+            return;
+        }
+        deflater = new Deflater(compressionLevel);
+        deflateBuffer = new byte[64 * 1024];
+        long maxBlockAgeMillis = maxBlockAge.getMilliseconds();
+        if (maxBlockAgeMillis > 0) {
+            blockAgeCheck = getContext().getScheduledExecutorService().scheduleAtFixedRate(
+                    this::writeOldBlock, maxBlockAgeMillis, maxBlockAgeMillis, TimeUnit.MILLISECONDS);
+        }
+        super.start();
+    }
+
+    private OutputStream openFile(File logFile) throws IOException {
+        File parent = logFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+        cutOffIncompleteBlock(logFile);
+        return new FileOutputStream(logFile, true);
+    }
+
+    // a crash can leave a partly written block at the end, which would hide all blocks appended after it from readers
+    private void cutOffIncompleteBlock(File logFile) throws IOException {
+        if (!logFile.exists()) {
+            return;
+        }
+        long completeLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 64 * 1024))) {
+            LogBlockHeader header;
+            while ((header = LogBlockHeader.readFrom(in)) != null) {
+                in.skipNBytes(header.getCompressedLength());
+                completeLength += header.toBytes().length + header.getCompressedLength();
+            }
+        } catch (EOFException e) {
+            // the last block is incomplete
+        } catch (IOException e) {
+            if (completeLength == 0) {
+                throw new IOException(logFile + " is not a block compressed log", e);
+            }
+        }
+        if (completeLength < logFile.length()) {
+            addWarn("Cutting off an incomplete block at the end of " + logFile + ".");
+            try (RandomAccessFile truncated = new RandomAccessFile(logFile, "rw")) {
+                truncated.setLength(completeLength);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (blockAgeCheck != null) {
+            blockAgeCheck.cancel(false);
+            blockAgeCheck = null;
+        }
+        lock.lock();
+        try {
+            if (out != null) {
+                closeFile();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeFile() {
+        try {
+            if (eventCount > 0) {
+                writeBlock();
+            }
+            out.close();
+        } catch (IOException e) {
+            addError("Failed to write the last block to " + file + ".", e);
+        } finally {
+            out = null;
+            deflater.end();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        byte[] encoded = encoder.encode(event);
+        List<String> values = indexedValuesOf(event);
+        lock.lock();
+        try {
+            if (out == null) {
+                return;
+            }
+            addToBlock(event.getTimeStamp(), encoded, values);
+            if (block.size() >= blockSize) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            addError("Failed to write block to " + file + ".", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeOldBlock() {
+        lock.lock();
+        try {
+            if (out != null && eventCount > 0 && System.nanoTime() - blockStartedAt >= maxBlockAge.getMilliseconds() * 1_000_000L) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            addError("Failed to write block to " + file + ".", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<String> indexedValuesOf(ILoggingEvent event) {
+        List<String> values = new ArrayList<>(indexBy.size());
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        for (MdcFieldPath path : indexBy) {
+            String value = path.extract(mdc.get(path.getMdcKey()));
+            if (value != null) {
+                values.add(LogBlockHeader.entry(path.getPath(), value));
+            }
+        }
+        return values;
+    }
+
+    private void addToBlock(long timestamp, byte[] encoded, List<String> values) {
+        if (eventCount == 0) {
+            blockStartedAt = System.nanoTime();
+        }
+        if (eventCount == 0 || timestamp < minTimestamp) {
+            minTimestamp = timestamp;
+        }
+        if (eventCount == 0 || timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+        }
+        eventCount++;
+        block.writeBytes(encoded);
+        indexedValues.addAll(values);
+    }
+
+    private void writeBlock() throws IOException {
+        byte[] uncompressed = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(uncompressed);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 4);
+        while (!deflater.finished()) {
+            compressed.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+        }
+        List<String> indexedPaths = indexBy.stream().map(MdcFieldPath::getPath).toList();
+        LogBlockHeader header = new LogBlockHeader(eventCount, minTimestamp, maxTimestamp, uncompressed.length, compressed.size(),
+                indexedPaths, LogBlockHeader.createBloomFilter(indexedValues));
+        out.write(header.toBytes());
+        compressed.writeTo(out);
+        out.flush();
+        block.reset();
+        indexedValues.clear();
+        eventCount = 0;
+    }
+
+    /**
+     * set the encoder for events, which must write one event per line
+     *
+     * @param encoder encoder
+     */
+    public void setEncoder(Encoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * set the file to append to
+     *
+     * @param file path of the file
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * add an MDC key to index, optionally followed by a path in its JSON value, like {@code Order.customerId}
+     *
+     * @param path MDC key and optional path
+     */
+    public void addIndexBy(String path) {
+        indexBy.add(MdcFieldPath.parse(path));
+    }
+
+    /**
+     * set the number of uncompressed bytes after which a block is written - defaults to 262144
+     *
+     * @param blockSize size of a block before compression
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * set the time after which a block is written even if it is not full, so that few events are lost if the JVM
+     * crashes - defaults to 30 seconds, 0 only writes full blocks
+     *
+     * @param maxBlockAge maximum time between the first event of a block and writing it
+     */
+    public void setMaxBlockAge(Duration maxBlockAge) {
+        this.maxBlockAge = maxBlockAge;
+    }
+
+    /**
+     * set the compression level from 0 to 9, or -1 for the default of {@link Deflater} - defaults to -1
+     *
+     * @param compressionLevel compression level
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+}
@@ -0,0 +1,155 @@
+package de.dm.prom.structuredlogging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * reads a log written by {@link BlockCompressedFileAppender} and skips blocks that cannot contain the events it is
+ * looking for
+ * <p>
+ * time ranges and indexed values select blocks, so events of a selected block are passed on even if they do not match
+ * themselves. To filter the events of selected blocks, add a {@link StructuredLogQuery}, for example with the same
+ * indexed values as conditions. A block that was not completely written at the end of the file, for example because
+ * the JVM crashed, is ignored.
+ */
+public final class BlockCompressedLogReader {
+    private final Path file;
+    private final long fromTimestamp;
+    private final long toTimestamp;
+    private final List<String[]> indexedValues; // [path, value]
+    private final StructuredLogQuery query; // null if all events of selected blocks are passed on
+
+    private BlockCompressedLogReader(Path file, long fromTimestamp, long toTimestamp, List<String[]> indexedValues, StructuredLogQuery query) {
+        this.file = file;
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        this.indexedValues = indexedValues;
+        this.query = query;
+    }
+
+    /**
+     * @param file log written by {@link BlockCompressedFileAppender}
+     *
+     * @return reader for all events of the file
+     */
+    public static BlockCompressedLogReader forFile(Path file) {
+        return new BlockCompressedLogReader(file, Long.MIN_VALUE, Long.MAX_VALUE, List.of(), null);
+    }
+
+    /**
+     * @param from earliest timestamp to read, inclusive
+     * @param to latest timestamp to read, inclusive
+     *
+     * @return a copy of this reader that only reads blocks with events in this time range
+     */
+    public BlockCompressedLogReader between(Instant from, Instant to) {
+        return new BlockCompressedLogReader(file, from.toEpochMilli(), to.toEpochMilli(), indexedValues, query);
+    }
+
+    /**
+     * @param path indexed field path, like {@code Order.customerId}
+     * @param value value of the field
+     *
+     * @return a copy of this reader that only reads blocks that may have an event with this value - blocks that do
+     *     not index this path are always read
+     */
+    public BlockCompressedLogReader withIndexedValue(String path, String value) {
+        List<String[]> newIndexedValues = new ArrayList<>(indexedValues);
+        newIndexedValues.add(new String[]{path, value});
+        return new BlockCompressedLogReader(file, fromTimestamp, toTimestamp, newIndexedValues, query);
+    }
+
+    /**
+     * @param newQuery query that each event of a selected block must match
+     *
+     * @return a copy of this reader that filters events with this query
+     */
+    public BlockCompressedLogReader matching(StructuredLogQuery newQuery) {
+        return new BlockCompressedLogReader(file, fromTimestamp, toTimestamp, indexedValues, newQuery);
+    }
+
+    /**
+     * read the selected events in the order of the file
+     *
+     * @param events consumer for the events, one line each
+     *
+     * @return number of events passed on
+     *
+     * @throws IOException if the file cannot be read or is not a block compressed log
+     */
+    public long read(Consumer<String> events) throws IOException {
+        long passedOn = 0;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            LogBlockHeader header;
+            while ((header = LogBlockHeader.readFrom(in)) != null) {
+                if (isSelected(header)) {
+                    passedOn += readBlock(in, header, inflater, events);
+                } else {
+                    in.skipNBytes(header.getCompressedLength());
+                }
+            }
+        } catch (EOFException e) {
+            return passedOn; // the last block is incomplete
+        } finally {
+            inflater.end();
+        }
+        return passedOn;
+    }
+
+    private boolean isSelected(LogBlockHeader header) {
+        if (!header.overlaps(fromTimestamp, toTimestamp)) {
+            return false;
+        }
+        for (String[] indexedValue : indexedValues) {
+            if (!header.mayContain(indexedValue[0], indexedValue[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long readBlock(DataInputStream in, LogBlockHeader header, Inflater inflater, Consumer<String> events) throws IOException {
+        byte[] uncompressed = inflate(in, header, inflater);
+        long passedOn = 0;
+        int lineStart = 0;
+        for (int i = 0; i <= uncompressed.length; i++) {
+            if (i == uncompressed.length || uncompressed[i] == '\n') {
+                int lineEnd = i > lineStart && uncompressed[i - 1] == '\r' ? i - 1 : i;
+                if (lineEnd > lineStart && (query == null || query.matches(uncompressed, lineStart, lineEnd - lineStart))) {
+                    events.accept(new String(uncompressed, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                    passedOn++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return passedOn;
+    }
+
+    private byte[] inflate(DataInputStream in, LogBlockHeader header, Inflater inflater) throws IOException {
+        byte[] compressed = new byte[header.getCompressedLength()];
+        in.readFully(compressed);
+        byte[] uncompressed = new byte[header.getUncompressedLength()];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(uncompressed) != uncompressed.length) {
+                throw new IOException("block in " + file + " is shorter than its header says");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("block in " + file + " is corrupt", e);
+        }
+        return uncompressed;
+    }
+}
@@ -0,0 +1,21 @@
+package de.dm.prom.structuredlogging;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * replaces a property of an MDC value by a hash when it is serialized, like an email address - events with the same
+ * value can still be correlated, but the value itself is not logged
+ * <p>
+ * the hash is the first 128 bits of the HMAC-SHA-256 of the value with the secret set by
+ * {@link MdcContext#setHashSecret(String)}, written in hex. Applied by {@link MdcRedactionModule}, which is part of the
+ * default JSON mapper of {@link MdcContext}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface Hashed {
+}
@@ -0,0 +1,68 @@
+package de.dm.prom.structuredlogging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+
+/**
+ * serializes MDC values with Jackson 2, for applications that rely on Jackson 2 modules or annotations
+ * <p>
+ * this class is only loaded if Jackson 2 serialization is requested, so Jackson 2 does not need to be on the classpath
+ * otherwise
+ */
+final class Jackson2MdcJsonSerializer implements MdcJsonSerializer {
+    private final ObjectMapper objectMapper;
+
+    Jackson2MdcJsonSerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    static ObjectMapper createDefaultObjectMapper() {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Instant.class, ToStringSerializer.instance);
+        module.addSerializer(LocalDate.class, ToStringSerializer.instance);
+        module.addSerializer(LocalDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(OffsetDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(OffsetTime.class, ToStringSerializer.instance);
+        module.addSerializer(Period.class, ToStringSerializer.instance);
+        module.addSerializer(ZonedDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(LocalTime.class, ToStringSerializer.instance);
+        module.addSerializer(Duration.class, ToStringSerializer.instance);
+        module.addSerializer(MonthDay.class, ToStringSerializer.instance);
+        module.addSerializer(Year.class, ToStringSerializer.instance);
+        module.addSerializer(YearMonth.class, ToStringSerializer.instance);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(module);
+        objectMapper.registerModule(new Jdk8Module());
+        objectMapper.registerModule(new Jackson2MdcRedactionModule());
+        return objectMapper;
+    }
+
+    /**
+     * @return whether the object mapper masks and hashes {@link Masked} and {@link Hashed} properties
+     */
+    boolean isRedacting() {
+        return objectMapper.getRegisteredModuleIds().contains(Jackson2MdcRedactionModule.MODULE_NAME);
+    }
+
+    @Override
+    public String toJson(Object value) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(value);
+    }
+}
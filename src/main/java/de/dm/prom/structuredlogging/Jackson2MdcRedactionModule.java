@@ -0,0 +1,73 @@
+package de.dm.prom.structuredlogging;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsonFormatVisitors.JsonFormatVisitorWrapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Jackson 2 module that masks or hashes {@link Masked} and {@link Hashed} properties of MDC values while they are
+ * serialized, like {@link MdcRedactionModule} does for Jackson 3
+ * <p>
+ * the Jackson 2 object mapper of {@link MdcContext#useJackson2()} contains this module - add it to your own object
+ * mapper before you set it with {@link MdcContext#setGlobalObjectMapper(com.fasterxml.jackson.databind.ObjectMapper)}.
+ * Redaction rules for types you cannot annotate are only supported with Jackson 3.
+ */
+public final class Jackson2MdcRedactionModule extends SimpleModule {
+    static final String MODULE_NAME = "Jackson2MdcRedactionModule";
+
+    /**
+     * create a module that redacts annotated properties
+     */
+    public Jackson2MdcRedactionModule() {
+        super(MODULE_NAME);
+        setSerializerModifier(new RedactingSerializerModifier());
+    }
+
+    private static final class RedactingSerializerModifier extends BeanSerializerModifier {
+        @Override
+        public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+            for (BeanPropertyWriter property : beanProperties) {
+                Masked masked = property.getAnnotation(Masked.class);
+                if (masked != null) {
+                    property.assignSerializer(new RedactingSerializer(false, masked.visibleSuffix()));
+                } else if (property.getAnnotation(Hashed.class) != null) {
+                    property.assignSerializer(new RedactingSerializer(true, 0));
+                }
+            }
+            return beanProperties;
+        }
+    }
+
+    private static final class RedactingSerializer extends StdSerializer<Object> {
+        private final boolean hash;
+        private final int visibleSuffix;
+
+        private RedactingSerializer(boolean hash, int visibleSuffix) {
+            super(Object.class);
+            this.hash = hash;
+            this.visibleSuffix = visibleSuffix;
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            String text = String.valueOf(value);
+            generator.writeString(hash ? Redaction.hash(text) : Redaction.mask(text, visibleSuffix));
+        }
+
+        @Override
+        public void acceptJsonFormatVisitor(JsonFormatVisitorWrapper visitor, JavaType typeHint) throws JsonMappingException {
+            visitor.expectStringFormat(typeHint); //redacted values are strings, whatever the type of the property
+        }
+    }
+}
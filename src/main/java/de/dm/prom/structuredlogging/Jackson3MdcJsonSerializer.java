@@ -0,0 +1,74 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.MapperFeature;
+import tools.jackson.databind.cfg.DateTimeFeature;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.module.SimpleModule;
+import tools.jackson.databind.ser.std.ToStringSerializer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+
+/**
+ * serializes MDC values with Jackson 3, which is also used by logstash-logback-encoder
+ */
+final class Jackson3MdcJsonSerializer implements MdcJsonSerializer {
+    private final ObjectMapper objectMapper;
+
+    Jackson3MdcJsonSerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    static JsonMapper createDefaultJsonMapper() {
+        return createDefaultJsonMapper(new MdcRedactionModule());
+    }
+
+    static JsonMapper createDefaultJsonMapper(MdcRedactionModule redactionModule) {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Instant.class, ToStringSerializer.instance);
+        module.addSerializer(LocalDate.class, ToStringSerializer.instance);
+        module.addSerializer(LocalDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(OffsetDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(OffsetTime.class, ToStringSerializer.instance);
+        module.addSerializer(Period.class, ToStringSerializer.instance);
+        module.addSerializer(ZonedDateTime.class, ToStringSerializer.instance);
+        module.addSerializer(LocalTime.class, ToStringSerializer.instance);
+        module.addSerializer(Duration.class, ToStringSerializer.instance);
+        module.addSerializer(MonthDay.class, ToStringSerializer.instance);
+        module.addSerializer(Year.class, ToStringSerializer.instance);
+        module.addSerializer(YearMonth.class, ToStringSerializer.instance);
+        module.addSerializer(Month.class, ToStringSerializer.instance); //Jackson 3 writes months as numbers otherwise
+
+        return JsonMapper.builder()
+                .addModule(module)
+                .addModule(redactionModule)
+                .disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY) //keep the field order of Jackson 2
+                .enable(DateTimeFeature.WRITE_DATES_AS_TIMESTAMPS) //keep java.util.Date as epoch millis like Jackson 2
+                .build();
+    }
+
+    @Override
+    public String toJson(Object value) {
+        return objectMapper.writeValueAsString(value);
+    }
+
+    @Override
+    public String toFlatJson(String mdcKey, Object value, MdcFlattening flattening) {
+        try (JsonParser parser = objectMapper.writeValueIntoBuffer(value).asParser()) { //tokens, so no JSON text is parsed
+            return flattening.flatten(mdcKey, parser);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package de.dm.prom.structuredlogging;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * growable UTF-8 buffer for writing JSON without intermediate strings, meant to be reused by a single thread
+ */
+final class JsonByteBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int SECOND_PREFIX_LENGTH = "yyyy-MM-ddTHH:mm:ss".length();
+
+    private byte[] bytes;
+    private int length;
+    private long cachedEpochSecond = Long.MIN_VALUE;
+    private final byte[] cachedSecondPrefix = new byte[SECOND_PREFIX_LENGTH];
+
+    JsonByteBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    void write(byte[] source) {
+        ensureCapacity(source.length);
+        System.arraycopy(source, 0, bytes, length, source.length);
+        length += source.length;
+    }
+
+    void write(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    /**
+     * write a pre-encoded field that starts with a comma, leaving out the comma for the first field of an object
+     *
+     * @param commaPrefixed pre-encoded field, starting with a comma
+     * @param first whether this is the first field of an object
+     */
+    void writeField(byte[] commaPrefixed, boolean first) {
+        int offset = first ? 1 : 0;
+        ensureCapacity(commaPrefixed.length - offset);
+        System.arraycopy(commaPrefixed, offset, bytes, length, commaPrefixed.length - offset);
+        length += commaPrefixed.length - offset;
+    }
+
+    /**
+     * write a string as a quoted and escaped JSON string
+     *
+     * @param value string to write
+     */
+    void writeString(String value) {
+        write((byte) '"');
+        writeUtf8(value, 0, true);
+        write((byte) '"');
+    }
+
+    /**
+     * write a string as it is, for example JSON that is already serialized
+     *
+     * @param value string to write
+     * @param from index of the first character to write
+     */
+    void writeRaw(String value, int from) {
+        writeUtf8(value, from, false);
+    }
+
+    /**
+     * write a timestamp like {@code 2019-01-01T13:37:00.042Z}, formatting the date and time only once per second
+     *
+     * @param epochMillis milliseconds since the epoch
+     */
+    void writeUtcTimestamp(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000);
+        if (epochSecond != cachedEpochSecond) {
+            LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+            putDigits(cachedSecondPrefix, 0, time.getYear(), 4);
+            cachedSecondPrefix[4] = '-';
+            putDigits(cachedSecondPrefix, 5, time.getMonthValue(), 2);
+            cachedSecondPrefix[7] = '-';
+            putDigits(cachedSecondPrefix, 8, time.getDayOfMonth(), 2);
+            cachedSecondPrefix[10] = 'T';
+            putDigits(cachedSecondPrefix, 11, time.getHour(), 2);
+            cachedSecondPrefix[13] = ':';
+            putDigits(cachedSecondPrefix, 14, time.getMinute(), 2);
+            cachedSecondPrefix[16] = ':';
+            putDigits(cachedSecondPrefix, 17, time.getSecond(), 2);
+            cachedEpochSecond = epochSecond;
+        }
+        ensureCapacity(SECOND_PREFIX_LENGTH + 7);
+        System.arraycopy(cachedSecondPrefix, 0, bytes, length, SECOND_PREFIX_LENGTH);
+        length += SECOND_PREFIX_LENGTH;
+        bytes[length++] = '.';
+        putDigits(bytes, length, (int) Math.floorMod(epochMillis, 1000), 3);
+        length += 3;
+        bytes[length++] = 'Z';
+    }
+
+    private static void putDigits(byte[] target, int offset, int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            target[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void writeUtf8(String value, int from, boolean escape) {
+        int end = value.length();
+        ensureCapacity(end - from);
+        for (int i = from; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                i = writeNonAscii(value, i);
+            } else if (escape && (c < 0x20 || c == '"' || c == '\\')) {
+                writeEscaped(c);
+            } else {
+                ensureCapacity(1);
+                bytes[length++] = (byte) c;
+            }
+        }
+    }
+
+    private int writeNonAscii(String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x800) {
+            ensureCapacity(2);
+            bytes[length++] = (byte) (0xc0 | c >> 6);
+            bytes[length++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            ensureCapacity(4);
+            bytes[length++] = (byte) (0xf0 | codePoint >> 18);
+            bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+            bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            bytes[length++] = (byte) (0x80 | codePoint & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+            write((byte) '?');
+        } else {
+            ensureCapacity(3);
+            bytes[length++] = (byte) (0xe0 | c >> 12);
+            bytes[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+            bytes[length++] = (byte) (0x80 | c & 0x3f);
+        }
+        return i;
+    }
+
+    private void writeEscaped(char c) {
+        ensureCapacity(6);
+        bytes[length++] = '\\';
+        switch (c) {
+            case '"' -> bytes[length++] = '"';
+            case '\\' -> bytes[length++] = '\\';
+            case '\n' -> bytes[length++] = 'n';
+            case '\r' -> bytes[length++] = 'r';
+            case '\t' -> bytes[length++] = 't';
+            case '\b' -> bytes[length++] = 'b';
+            case '\f' -> bytes[length++] = 'f';
+            default -> {
+                bytes[length++] = 'u';
+                bytes[length++] = '0';
+                bytes[length++] = '0';
+                bytes[length++] = HEX[c >> 4];
+                bytes[length++] = HEX[c & 0xf];
+            }
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package de.dm.prom.structuredlogging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * index of a block written by {@link BlockCompressedFileAppender}, which precedes the block's compressed events
+ * <p>
+ * it contains the number of events, the range of their timestamps and a bloom filter over the values of the indexed
+ * field paths, so that readers can skip blocks that cannot contain what they are looking for.
+ */
+final class LogBlockHeader {
+    static final int MAGIC = 0x534C4231; // "SLB1"
+    private static final int BITS_PER_VALUE = 10;
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final int eventCount;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final int uncompressedLength;
+    private final int compressedLength;
+    private final List<String> indexedPaths;
+    private final byte[] bloomFilter;
+
+    LogBlockHeader(int eventCount, long minTimestamp, long maxTimestamp, int uncompressedLength, int compressedLength,
+                   List<String> indexedPaths, byte[] bloomFilter) {
+        this.eventCount = eventCount;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.uncompressedLength = uncompressedLength;
+        this.compressedLength = compressedLength;
+        this.indexedPaths = indexedPaths;
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * @param entries indexed values as created by {@link #entry(String, String)}
+     *
+     * @return bloom filter that contains all entries
+     */
+    static byte[] createBloomFilter(Collection<String> entries) {
+        int bits = Math.max(64, (entries.size() * BITS_PER_VALUE + 7) / 8 * 8);
+        byte[] bloomFilter = new byte[bits / 8];
+        for (String entry : entries) {
+            long hash = hash(entry);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = bitOf(hash, i, bits);
+                bloomFilter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return bloomFilter;
+    }
+
+    static String entry(String path, String value) {
+        return path + '\0' + value;
+    }
+
+    /**
+     * @param in stream positioned at the start of a block
+     *
+     * @return the block's header, null if the stream is at its end
+     *
+     * @throws IOException if the stream cannot be read or does not contain a block
+     */
+    static LogBlockHeader readFrom(DataInputStream in) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("expected a log block, but found " + Integer.toHexString(magic));
+        }
+        int eventCount = in.readInt();
+        long minTimestamp = in.readLong();
+        long maxTimestamp = in.readLong();
+        int uncompressedLength = in.readInt();
+        int compressedLength = in.readInt();
+        int pathCount = in.readUnsignedShort();
+        List<String> indexedPaths = new ArrayList<>(pathCount);
+        for (int i = 0; i < pathCount; i++) {
+            indexedPaths.add(in.readUTF());
+        }
+        byte[] bloomFilter = new byte[in.readInt()];
+        in.readFully(bloomFilter);
+        return new LogBlockHeader(eventCount, minTimestamp, maxTimestamp, uncompressedLength, compressedLength, indexedPaths, bloomFilter);
+    }
+
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + bloomFilter.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(eventCount);
+        out.writeLong(minTimestamp);
+        out.writeLong(maxTimestamp);
+        out.writeInt(uncompressedLength);
+        out.writeInt(compressedLength);
+        out.writeShort(indexedPaths.size());
+        for (String path : indexedPaths) {
+            out.writeUTF(path);
+        }
+        out.writeInt(bloomFilter.length);
+        out.write(bloomFilter);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param path indexed field path
+     * @param value value to look for
+     *
+     * @return false if no event in this block has this value, true if one may have it or the path is not indexed
+     */
+    boolean mayContain(String path, String value) {
+        if (!indexedPaths.contains(path)) {
+            return true;
+        }
+        long hash = hash(entry(path, value));
+        int bits = bloomFilter.length * 8;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = bitOf(hash, i, bits);
+            if ((bloomFilter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean overlaps(long fromTimestamp, long toTimestamp) {
+        return minTimestamp <= toTimestamp && maxTimestamp >= fromTimestamp;
+    }
+
+    int getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    int getCompressedLength() {
+        return compressedLength;
+    }
+
+    private static int bitOf(long hash, int function, int bits) {
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        return Math.floorMod(first + function * second, bits);
+    }
+
+    private static long hash(String entry) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a, followed by a final mix so that all bits depend on all characters
+        for (int i = 0; i < entry.length(); i++) {
+            hash ^= entry.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
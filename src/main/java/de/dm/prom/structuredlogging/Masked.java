@@ -0,0 +1,25 @@
+package de.dm.prom.structuredlogging;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * masks a property of an MDC value when it is serialized, like an IBAN or a name - the value is replaced by
+ * {@code ***}, followed by its last {@link #visibleSuffix()} characters
+ * <p>
+ * applied by {@link MdcRedactionModule}, which is part of the default JSON mapper of {@link MdcContext}
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface Masked {
+    /**
+     * number of characters at the end of the value that stay visible
+     *
+     * @return visible characters, 0 to mask the whole value
+     */
+    int visibleSuffix() default 0;
+}
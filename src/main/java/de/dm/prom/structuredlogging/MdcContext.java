@@ -1,25 +1,11 @@
 package de.dm.prom.structuredlogging;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.lang.reflect.InvocationTargetException;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.MonthDay;
-import java.time.OffsetDateTime;
-import java.time.OffsetTime;
-import java.time.Period;
-import java.time.Year;
-import java.time.YearMonth;
-import java.time.ZonedDateTime;
 import java.util.Optional;
 
 /**
@@ -32,44 +18,150 @@ import java.util.Optional;
 public final class MdcContext implements java.io.Closeable {
     private final String oldValue; //MDC value outside this context
     private final String key;
+    private final long openedAt; //only set while JFR's MdcContextClose event is enabled
 
-    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper();
-    private static Optional<ObjectMapper> customObjectMapper = Optional.empty();
+    private static final SerializationBreaker SERIALIZATION_BREAKER = new SerializationBreaker();
+    private static final MdcContext NOT_SAMPLED = new MdcContext();
+    private static volatile Optional<MdcJsonSerializer> customSerializer = Optional.empty(); //swapped while other threads serialize
+    private static volatile MdcFlattening flattening; //null if values are not flattened
+    private static volatile boolean redactionRulesSet;
 
-    static {
-        SimpleModule module = new SimpleModule();
-        module.addSerializer(Instant.class, ToStringSerializer.instance);
-        module.addSerializer(LocalDate.class, ToStringSerializer.instance);
-        module.addSerializer(LocalDateTime.class, ToStringSerializer.instance);
-        module.addSerializer(OffsetDateTime.class, ToStringSerializer.instance);
-        module.addSerializer(OffsetTime.class, ToStringSerializer.instance);
-        module.addSerializer(Period.class, ToStringSerializer.instance);
-        module.addSerializer(ZonedDateTime.class, ToStringSerializer.instance);
-        module.addSerializer(LocalTime.class, ToStringSerializer.instance);
-        module.addSerializer(Duration.class, ToStringSerializer.instance);
-        module.addSerializer(MonthDay.class, ToStringSerializer.instance);
-        module.addSerializer(Year.class, ToStringSerializer.instance);
-        module.addSerializer(YearMonth.class, ToStringSerializer.instance);
+    /**
+     * holds the default serializer, so that the JSON mapper is only built when it is actually used - and not at all if a
+     * custom one is set before the first MDC value is serialized
+     */
+    private static final class DefaultSerializerHolder {
+        private static final MdcJsonSerializer INSTANCE = new Jackson3MdcJsonSerializer(Jackson3MdcJsonSerializer.createDefaultJsonMapper());
+    }
+
+    /**
+     * set a custom Jackson 3 JSON mapper globally for MdcContext.of(...), which means that all subsequent
+     * calls will use this JSON mapper to serialize the MDC value
+     *
+     * @param jsonMapper custom JSON mapper
+     */
+    public static void setGlobalJsonMapper(JsonMapper jsonMapper) {
+        customSerializer = Optional.of(new Jackson3MdcJsonSerializer(jsonMapper));
+        redactionRulesSet = false;
+        SERIALIZATION_BREAKER.reset();
+    }
+
+    /**
+     * serialize MDC values with the default JSON mapper and additional redaction rules - replaces a custom JSON mapper
+     * <p>
+     * {@link Masked} and {@link Hashed} properties are redacted without this. To use redaction rules with your own
+     * JSON mapper, add the {@link MdcRedactionModule} to it instead.
+     *
+     * @param redactionRules module with redaction rules
+     */
+    public static void setRedactionRules(MdcRedactionModule redactionRules) {
+        customSerializer = Optional.of(new Jackson3MdcJsonSerializer(Jackson3MdcJsonSerializer.createDefaultJsonMapper(redactionRules)));
+        redactionRulesSet = true;
+        SERIALIZATION_BREAKER.reset();
+    }
 
-        DEFAULT_OBJECT_MAPPER.registerModule(module);
-        DEFAULT_OBJECT_MAPPER.registerModule(new Jdk8Module());
+    /**
+     * set the secret for hashing {@link Hashed} properties and the hashed keys of {@link StructuredMdcJsonProvider}
+     * <p>
+     * values are hashed with HMAC-SHA-256, so that they cannot be found by hashing candidates without the secret. Use
+     * the same secret in all services whose logs are searched together. Without a secret, a random one is used, so
+     * hashes only match within the same JVM.
+     *
+     * @param secret secret for hashing
+     *
+     * @throws IllegalArgumentException if the secret is null or empty
+     */
+    public static void setHashSecret(String secret) {
+        Redaction.setSecret(secret);
     }
 
     /**
-     * set a custom object mapper globally for MdcContext.of(...), which means that all subsequent
+     * set a custom Jackson 2 object mapper globally for MdcContext.of(...), which means that all subsequent
      * calls will use this object mapper to serialize the MDC value
+     * <p>
+     * use {@link #setGlobalJsonMapper(JsonMapper)} instead, unless you depend on Jackson 2 modules or annotations. Add
+     * the {@link Jackson2MdcRedactionModule} to the object mapper, so that {@link Masked} and {@link Hashed} properties
+     * are redacted - a warning is logged otherwise.
      *
      * @param objectMapper custom object mapper
      */
-    public static void setGlobalObjectMapper(ObjectMapper objectMapper) {
-        customObjectMapper = Optional.of(objectMapper);
+    public static void setGlobalObjectMapper(com.fasterxml.jackson.databind.ObjectMapper objectMapper) {
+        useJackson2Serializer(new Jackson2MdcJsonSerializer(objectMapper));
+    }
+
+    /**
+     * serialize MDC values with Jackson 2 and the same settings as the default Jackson 3 mapper, like versions
+     * before 4.0.0 did - requires jackson-databind 2 and jackson-datatype-jdk8 on the classpath
+     * <p>
+     * {@link Masked} and {@link Hashed} properties are redacted, but redaction rules set with
+     * {@link #setRedactionRules(MdcRedactionModule)} are not applied anymore.
+     */
+    public static void useJackson2() {
+        useJackson2Serializer(new Jackson2MdcJsonSerializer(Jackson2MdcJsonSerializer.createDefaultObjectMapper()));
+    }
+
+    private static void useJackson2Serializer(Jackson2MdcJsonSerializer serializer) {
+        if (!serializer.isRedacting()) {
+            log.warn("MDC values are serialized with a Jackson 2 object mapper without the Jackson2MdcRedactionModule, so @Masked and @Hashed properties are logged in clear text");
+        }
+        if (redactionRulesSet) {
+            log.warn("MDC values are serialized with Jackson 2 now, so the redaction rules that were set are not applied anymore");
+        }
+        customSerializer = Optional.of(serializer);
+        redactionRulesSet = false;
+        SERIALIZATION_BREAKER.reset();
+    }
+
+    /**
+     * set the budget for serializing a single MDC value - defaults to no time budget and 1,000,000 characters
+     * <p>
+     * if serializing a value exceeds the budget or fails, values of the same type are replaced by a
+     * {@code json_error} placeholder for the duration set with {@link #setSerializationCooldown(Duration)}. A time
+     * budget is tripped by a single slow serialization, so choose it well above GC pauses.
+     *
+     * @param maxDuration maximum time to serialize a value, {@link Duration#ZERO} for no time budget
+     * @param maxLength maximum length of a serialized value
+     */
+    public static void setSerializationBudget(Duration maxDuration, int maxLength) {
+        SERIALIZATION_BREAKER.setBudget(maxDuration, maxLength);
+    }
+
+    /**
+     * set how long a type is not serialized anymore after its serialization failed or exceeded the budget - defaults
+     * to 1 minute
+     *
+     * @param cooldown time to skip serialization of a type
+     */
+    public static void setSerializationCooldown(Duration cooldown) {
+        SERIALIZATION_BREAKER.setCooldown(cooldown);
     }
 
     /**
-     * reset the object mapper for MdcContext.of(...) globally to the default
+     * reset the JSON mapper for MdcContext.of(...) globally to the default
+     * <p>
+     * this also forgets which types were skipped because their serialization failed or exceeded the budget
      */
     public static void resetGlobalObjectMapper() {
-        customObjectMapper = Optional.empty();
+        customSerializer = Optional.empty();
+        redactionRulesSet = false;
+        SERIALIZATION_BREAKER.reset();
+    }
+
+    /**
+     * write subsequently serialized MDC values as flat fields like {@code Order.customer.id} instead of nested objects
+     * - see {@link MdcFlattening}
+     *
+     * @param newFlattening settings for flattening
+     */
+    public static void setFlattening(MdcFlattening newFlattening) {
+        flattening = newFlattening;
+    }
+
+    /**
+     * write subsequently serialized MDC values as nested objects again - this is the default
+     */
+    public static void resetFlattening() {
+        flattening = null;
     }
 
     /**
@@ -85,14 +177,7 @@ public final class MdcContext implements java.io.Closeable {
      * @return an MDC context to use in a try-with-resources block
      */
     public static <T, S extends MdcKeySupplier<T>> MdcContext of(Class<S> keySupplier, T mdcValue) {
-        try {
-            MdcKeySupplier<T> id = keySupplier.getDeclaredConstructor().newInstance();
-            return new MdcContext(id.getMdcKey(), mdcValue);
-        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
-            log.error("Cannot put key of type {} to MDC because no new instance of {} can be created: {}",
-                    mdcValue.getClass().getSimpleName(), keySupplier.getSimpleName(), e.getMessage());
-        }
-        return new MdcContext(mdcValue.getClass().getSimpleName(), mdcValue);
+        return new MdcContext(keyOf(keySupplier, mdcValue.getClass().getSimpleName()), mdcValue);
     }
 
     /**
@@ -128,6 +213,69 @@ public final class MdcContext implements java.io.Closeable {
         return new MdcContext(mdcValue.getClass().getSimpleName(), mdcValue);
     }
 
+    /**
+     * create an MDC context for a heavy value that is only put into MDC if the current request is sampled
+     * <p>
+     * see {@link MdcSampling} for how requests are sampled - for requests that are not sampled, the value is not even
+     * serialized
+     *
+     * @param keySupplier {@link de.dm.prom.structuredlogging.MdcKeySupplier} implementation to describe which MDC key to use
+     * @param mdcValue the object to write to MDC
+     * @param <T> the type of the object to serialize
+     * @param <S> an implementation of MdcKeySupplier that supplies the MDC key for a certain type
+     *
+     * @return an MDC context to use in a try-with-resources block - it does nothing if the request is not sampled
+     */
+    public static <T, S extends MdcKeySupplier<T>> MdcContext ofSampled(Class<S> keySupplier, T mdcValue) {
+        return MdcSampling.isSampled() ? new MdcContext(keyOf(keySupplier, mdcValue.getClass().getSimpleName()), mdcValue) : NOT_SAMPLED;
+    }
+
+    /**
+     * create an MDC context for a heavy value that is only put into MDC if the current request is sampled
+     * <p>
+     * see {@link MdcSampling} for how requests are sampled - for requests that are not sampled, the value is not even
+     * serialized
+     *
+     * @param mdcKey MDC key to use
+     * @param mdcValue the object to write to MDC
+     *
+     * @return an MDC context to use in a try-with-resources block - it does nothing if the request is not sampled
+     */
+    public static MdcContext ofSampled(String mdcKey, Object mdcValue) {
+        return MdcSampling.isSampled() ? new MdcContext(mdcKey, mdcValue) : NOT_SAMPLED;
+    }
+
+    /**
+     * create a reusable MDC slot
+     * <p>
+     * use this instead of creating a new MDC context for each element in a tight loop. The slot's value can be swapped
+     * with {@link MdcSlot#set(Object)} and the MDC state from outside the slot is restored only once, when it is closed.
+     *
+     * @param keySupplier {@link de.dm.prom.structuredlogging.MdcKeySupplier} implementation to describe which MDC key to use
+     * @param <T> the type of the objects to serialize
+     * @param <S> an implementation of MdcKeySupplier that supplies the MDC key for a certain type
+     *
+     * @return an MDC slot to use in a try-with-resources block
+     */
+    public static <T, S extends MdcKeySupplier<T>> MdcSlot<T> slot(Class<S> keySupplier) {
+        return new MdcSlot<>(keyOf(keySupplier, keySupplier.getSimpleName()));
+    }
+
+    /**
+     * create a reusable MDC slot
+     * <p>
+     * use this to construct an MDC slot with a manually defined key
+     * <p>
+     * See {@link MdcContext#slot(Class)} if you want to ensure that the same key is always used for a certain type
+     *
+     * @param mdcKey MDC key to use
+     *
+     * @return an MDC slot to use in a try-with-resources block
+     */
+    public static MdcSlot<Object> slot(String mdcKey) {
+        return new MdcSlot<>(mdcKey);
+    }
+
     /**
      * execute a supplier with MDC Context
      *
@@ -248,13 +396,8 @@ public final class MdcContext implements java.io.Closeable {
      * @param <S> an implementation of MdcKeySupplier that supplies the MDC key for a certain type
      */
     public static <T, S extends MdcKeySupplier<T>> void update(Class<S> keySupplier, T mdcValue) {
-        try {
-            MdcKeySupplier<T> id = keySupplier.getDeclaredConstructor().newInstance();
-            updateMdcContent(id.getMdcKey(), toJson(mdcValue));
-        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
-            log.error("Cannot update MDC with type {} because no new instance of {} can be created: {}",
-                    mdcValue.getClass().getSimpleName(), keySupplier.getSimpleName(), e.getMessage());
-        }
+        String mdcKey = keyOf(keySupplier, mdcValue.getClass().getSimpleName());
+        updateMdcContent(mdcKey, toMdcValue(mdcKey, mdcValue));
     }
 
     /**
@@ -270,7 +413,7 @@ public final class MdcContext implements java.io.Closeable {
      * @param mdcValue the object to write to MDC
      */
     public static void update(String mdcKey, Object mdcValue) {
-        updateMdcContent(mdcKey, toJson(mdcValue));
+        updateMdcContent(mdcKey, toMdcValue(mdcKey, mdcValue));
     }
 
     /**
@@ -287,53 +430,161 @@ public final class MdcContext implements java.io.Closeable {
      * @param mdcValue the object to write to MDC
      */
     public static void update(Object mdcValue) {
-        updateMdcContent(mdcValue.getClass().getSimpleName(), toJson(mdcValue));
+        updateMdcContent(mdcValue.getClass().getSimpleName(), toMdcValue(mdcValue.getClass().getSimpleName(), mdcValue));
+    }
+
+    /**
+     * @param keySupplier {@link MdcKeySupplier} implementation with a constructor without arguments
+     *
+     * @return the MDC key of a new instance of the key supplier
+     *
+     * @throws IllegalArgumentException if no new instance of the key supplier can be created
+     */
+    static String keyOf(Class<? extends MdcKeySupplier<?>> keySupplier) {
+        try {
+            return keySupplier.getDeclaredConstructor().newInstance().getMdcKey();
+        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot create a new instance of " + keySupplier.getName(), e);
+        }
+    }
+
+    /**
+     * @param keySupplier {@link MdcKeySupplier} implementation with a constructor without arguments
+     * @param fallbackKey MDC key to use if no new instance of the key supplier can be created
+     *
+     * @return the MDC key of a new instance of the key supplier, or the fallback key - an error is logged then
+     */
+    static String keyOf(Class<? extends MdcKeySupplier<?>> keySupplier, String fallbackKey) {
+        try {
+            return keyOf(keySupplier);
+        } catch (IllegalArgumentException e) {
+            log.error("Cannot use MDC key supplier {} because no new instance of it can be created, using MDC key {} instead: {}",
+                    keySupplier.getSimpleName(), fallbackKey, e.getCause().getMessage());
+            return fallbackKey;
+        }
+    }
+
+    /**
+     * create an MDC context for code that knows better than the stack where it is opened
+     *
+     * @param mdcKey MDC key to use
+     * @param mdcValue the object to write to MDC
+     * @param caller where the context is opened, for the warning about overwriting an MDC key
+     *
+     * @return an MDC context to use in a try-with-resources block
+     */
+    static MdcContext forCaller(String mdcKey, Object mdcValue, String caller) {
+        return new MdcContext(mdcKey, mdcValue, caller);
+    }
+
+    private MdcContext() { //does nothing, for values that are not sampled
+        key = null;
+        oldValue = null;
+        openedAt = 0;
     }
 
     private MdcContext(String key, Object value) {
+        this(key, value, null);
+    }
+
+    private MdcContext(String key, Object value, String caller) {
         this.key = key;
-        oldValue = putToMDCwithOverwriteWarning(key, toJson(value));
+        MdcContextOpenEvent openEvent = new MdcContextOpenEvent();
+        openEvent.begin();
+        String mdcValue = toMdcValue(key, value);
+        oldValue = caller == null ?
+                putToMDCwithOverwriteWarning(key, mdcValue, 6) : //always [6] because it is always accessed through both of MdcContext's constructors
+                putToMDCwithOverwriteWarning(key, mdcValue, caller);
+        if (oldValue == null) {
+            MdcScopeListeners.outermostScopeOpened(key);
+        }
+        if (openEvent.shouldCommit()) {
+            openEvent.key = key;
+            openEvent.valueType = value == null ? null : value.getClass();
+            openEvent.serializedSize = mdcValue.length() - StructuredMdcJsonProvider.structuredPrefixLength(mdcValue);
+            openEvent.commit();
+        }
+        openedAt = MdcContextCloseEvent.startTimestamp();
+        MdcLeakDetector.contextOpened(key);
     }
 
     @Override
     public void close() {
+        if (key == null) {
+            return;
+        }
+        MdcContextCloseEvent closeEvent = new MdcContextCloseEvent();
+        closeEvent.begin();
+        MdcLeakDetector.contextClosed(key);
         if (oldValue == null) {
+            MdcScopeListeners.outermostScopeClosed(key);
             MDC.remove(key);
         } else {
             MDC.put(key, oldValue);
         }
+        if (closeEvent.shouldCommit()) {
+            closeEvent.key = key;
+            closeEvent.scopeDuration = openedAt == 0 ? 0 : System.nanoTime() - openedAt;
+            closeEvent.commit();
+        }
     }
 
-    private static String toJson(Object object) {
-        String objectToJson = "{\"json_error\":\"Unserializable Object.\"}";
-        //needs to be an object, not a string, for Kibana. Otherwise, Kibana will throw away the log entry because the field has the wrong type.
+    static String toJson(Object object) {
+        return SERIALIZATION_BREAKER.toJson(object, customSerializer.orElseGet(() -> DefaultSerializerHolder.INSTANCE));
+    }
 
-        try {
-            objectToJson = getObjectMapper().writeValueAsString(object);
-        } catch (Exception e) {
-            log.error("Object cannot be serialized: \"{}\"", object, e);
+    /**
+     * serialize a value for MDC, flattened if {@link #setFlattening(MdcFlattening)} is used
+     *
+     * @param key MDC key of the value
+     * @param object value to serialize
+     *
+     * @return the value with {@link StructuredMdcJsonProvider#JSON_PREFIX}, or with
+     *     {@link StructuredMdcJsonProvider#FLAT_JSON_PREFIX} if it was flattened
+     */
+    static String toMdcValue(String key, Object object) {
+        MdcFlattening currentFlattening = flattening;
+        if (currentFlattening == null) {
+            return StructuredMdcJsonProvider.JSON_PREFIX + toJson(object);
         }
-        return objectToJson;
+        MdcJsonSerializer serializer = customSerializer.orElseGet(() -> DefaultSerializerHolder.INSTANCE);
+        boolean[] flattened = new boolean[1]; //false if serialization failed or was skipped, which returns a placeholder
+        String json = SERIALIZATION_BREAKER.toJson(object, value -> {
+            String flatJson = serializer.toFlatJson(key, value, currentFlattening);
+            flattened[0] = flatJson.startsWith("{"); //only objects are flattened
+            return flatJson;
+        });
+        return (flattened[0] ? StructuredMdcJsonProvider.FLAT_JSON_PREFIX : StructuredMdcJsonProvider.JSON_PREFIX) + json;
     }
 
-    private static ObjectMapper getObjectMapper() {
-        return customObjectMapper.orElse(DEFAULT_OBJECT_MAPPER);
+    static String putToMDCwithOverwriteWarning(String key, String newValue, int callerDepth) {
+        String oldValue = MDC.get(key);
+        if (oldValue != null) {
+            MdcOverwriteEvent.commit(key, newValue, oldValue);
+            logOverwriting(key, newValue, oldValue, callerAt(callerDepth));
+        }
+        MDC.put(key, newValue);
+        return oldValue;
     }
 
-    private static String putToMDCwithOverwriteWarning(String key, String newValue) {
-        newValue = StructuredMdcJsonProvider.JSON_PREFIX + newValue;
+    private static String putToMDCwithOverwriteWarning(String key, String newValue, String caller) {
         String oldValue = MDC.get(key);
         if (oldValue != null) {
-            logOverwriting(key, newValue, oldValue);
+            MdcOverwriteEvent.commit(key, newValue, oldValue);
+            logOverwriting(key, newValue, oldValue, caller);
         }
         MDC.put(key, newValue);
         return oldValue;
     }
 
-    private static void logOverwriting(String key, String value, String oldValue) {
-        StackTraceElement caller = Thread.currentThread().getStackTrace()[5]; //always [5] because it is always accessed through MdcContext's constructor
-        String message = String.format("Overwriting MDC key %s in %s.%s(%s:%s) - a context with a certain key should never contain another context with the same one.",
-                key, caller.getClassName(), caller.getMethodName(), caller.getFileName(), caller.getLineNumber());
+    private static String callerAt(int callerDepth) {
+        StackTraceElement caller = Thread.currentThread().getStackTrace()[callerDepth];
+        return String.format("%s.%s(%s:%s)", caller.getClassName(), caller.getMethodName(), caller.getFileName(), caller.getLineNumber());
+    }
+
+    private static void logOverwriting(String key, String value, String oldValue, String caller) {
+        String message = String.format("Overwriting MDC key %s in %s - a context with a certain key should never contain another context with the same one.",
+                key, caller);
         if (!oldValue.equals(value)) {
             log.error("{} The old value differs from new value. This should never happen, because it messes up the MDC context. Old value: {} - new value: {}",
                     message, oldValue, value);
@@ -343,7 +594,6 @@ public final class MdcContext implements java.io.Closeable {
     }
 
     private static void updateMdcContent(String key, String newValue) {
-        newValue = StructuredMdcJsonProvider.JSON_PREFIX + newValue;
         String oldValue = MDC.get(key);
         if (oldValue == null) {
             logFailedUpdate(key);
@@ -0,0 +1,37 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for closing an {@link MdcContext} - its duration covers restoring MDC
+ */
+@Name("de.dm.prom.structuredlogging.MdcContextClose")
+@Label("MDC Context Close")
+@Description("An MdcContext was closed and the MDC state outside of it was restored")
+@Category("Structured Logging")
+@Enabled(false)
+@StackTrace(false)
+final class MdcContextCloseEvent extends jdk.jfr.Event {
+    @Label("MDC Key")
+    String key;
+
+    @Label("Scope Duration")
+    @Description("Time between opening and closing the MdcContext")
+    @Timespan(Timespan.NANOSECONDS)
+    long scopeDuration;
+
+    /**
+     * get a timestamp to measure the scope duration with - without calling System.nanoTime() while the event is disabled
+     *
+     * @return current System.nanoTime() or 0 if the event is disabled
+     */
+    static long startTimestamp() {
+        return new MdcContextCloseEvent().isEnabled() ? System.nanoTime() : 0;
+    }
+}
@@ -0,0 +1,29 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for opening an {@link MdcContext} - its duration covers serialization and writing to MDC
+ */
+@Name("de.dm.prom.structuredlogging.MdcContextOpen")
+@Label("MDC Context Open")
+@Description("An MdcContext was created, including serialization of its value")
+@Category("Structured Logging")
+@Enabled(false)
+@StackTrace(false)
+final class MdcContextOpenEvent extends jdk.jfr.Event {
+    @Label("MDC Key")
+    String key;
+
+    @Label("Value Type")
+    Class<?> valueType;
+
+    @Label("Serialized Size")
+    @Description("Length of the serialized JSON in characters")
+    int serializedSize;
+}
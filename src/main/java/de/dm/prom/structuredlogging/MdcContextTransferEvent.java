@@ -0,0 +1,32 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for {@link MdcTaskDecorator} transferring MDC into another thread - its duration covers setting the context
+ */
+@Name("de.dm.prom.structuredlogging.MdcContextTransfer")
+@Label("MDC Context Transfer")
+@Description("MdcTaskDecorator set the MDC context of the decorating thread in the thread running the task")
+@Category("Structured Logging")
+@Enabled(false)
+@StackTrace(false)
+final class MdcContextTransferEvent extends jdk.jfr.Event {
+    @Label("Transferred Keys")
+    int transferredKeys;
+
+    @Label("Present Keys")
+    @Description("Number of MDC keys already present in the thread running the task")
+    int presentKeys;
+
+    @Label("Overwrite Strategy")
+    String overwriteStrategy;
+
+    @Label("Context Was Set")
+    boolean contextWasSet;
+}
@@ -0,0 +1,140 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JsonGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.structuredPrefixLength;
+
+/**
+ * writes MDC as a delta to the previous event of the same thread
+ * <p>
+ * a scope starts with the first event of a thread that has MDC and ends with the next event without MDC. The first
+ * event of a scope and every {@code snapshotInterval}th event after it carry a full snapshot, all others only the MDC
+ * keys that were set or removed since the previous event of the scope:
+ * <pre>
+ * "mdc_delta":{"scope":"...","snapshot":true,"set":{...},"removed":[...]}
+ * </pre>
+ * {@link StructuredMdcDeltaExpander} expands such a stream back to full events.
+ * <p>
+ * the state of a thread is held in a thread local while events are encoded by the thread that logged them, so that
+ * threads with the same name, like unnamed threads or threads of different pools, do not share a scope. Events that
+ * are encoded by another thread, like behind an {@code AsyncAppender}, are told apart by the name of their thread.
+ */
+final class MdcDeltaEncoder {
+    static final String DELTA_FIELD_NAME = "mdc_delta";
+    private static final int MAX_TRACKED_THREADS = 10_000;
+    private static final String SCOPE_ID_PREFIX = Integer.toHexString(ThreadLocalRandom.current().nextInt()) + "-";
+    private static final AtomicLong SCOPE_COUNTER = new AtomicLong();
+
+    private final ThreadLocal<DeltaState> stateOfCurrentThread = new ThreadLocal<>();
+    private final Map<String, DeltaState> statesByThreadName = new ConcurrentHashMap<>();
+    private final int snapshotInterval;
+
+    MdcDeltaEncoder(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * write the delta of an event's MDC
+     *
+     * @param generator generator to write to
+     * @param threadName name of the thread that logged the event
+     * @param mdc the event's MDC, already filtered to the keys that should be written
+     */
+    void writeDelta(JsonGenerator generator, String threadName, Map<String, String> mdc) {
+        boolean encodedByLoggingThread = threadName.equals(Thread.currentThread().getName());
+        if (mdc.isEmpty()) {
+            if (encodedByLoggingThread) {
+                stateOfCurrentThread.remove();
+            } else {
+                statesByThreadName.remove(threadName);
+            }
+            return;
+        }
+        DeltaState state = encodedByLoggingThread ? stateOfCurrentThread.get() : statesByThreadName.get(threadName);
+        if (state == null) {
+            state = startScope(encodedByLoggingThread, threadName);
+        }
+        boolean snapshot = state.previous == null || state.eventsSinceSnapshot >= snapshotInterval;
+
+        generator.writeObjectPropertyStart(DELTA_FIELD_NAME);
+        generator.writeStringProperty("scope", state.scopeId);
+        if (snapshot) {
+            generator.writeBooleanProperty("snapshot", true);
+        }
+        writeSetFields(generator, mdc, snapshot ? null : state.previous);
+        if (!snapshot) {
+            writeRemovedKeys(generator, mdc, state.previous);
+        }
+        generator.writeEndObject();
+
+        state.previous = mdc;
+        state.eventsSinceSnapshot = snapshot ? 1 : state.eventsSinceSnapshot + 1;
+    }
+
+    private DeltaState startScope(boolean encodedByLoggingThread, String threadName) {
+        DeltaState state = new DeltaState(SCOPE_ID_PREFIX + Long.toString(SCOPE_COUNTER.incrementAndGet(), 36));
+        if (encodedByLoggingThread) {
+            stateOfCurrentThread.set(state);
+        } else {
+            if (statesByThreadName.size() >= MAX_TRACKED_THREADS) {
+                statesByThreadName.clear(); //only costs a snapshot for each thread
+            }
+            statesByThreadName.put(threadName, state);
+        }
+        return state;
+    }
+
+    private static void writeSetFields(JsonGenerator generator, Map<String, String> mdc, Map<String, String> previous) {
+        boolean started = false;
+        for (Map.Entry<String, String> field : mdc.entrySet()) {
+            String previousValue = previous == null ? null : previous.get(field.getKey());
+            if (previousValue == field.getValue() || field.getValue().equals(previousValue)) {
+                continue; //MDC hands out the same instance as long as a value is unchanged, so equals() is rarely needed
+            }
+            if (!started) {
+                generator.writeObjectPropertyStart("set");
+                started = true;
+            }
+            int prefixLength = structuredPrefixLength(field.getValue());
+            if (prefixLength > 0) { //flattened values are written as objects with flat field names
+                generator.writeName(field.getKey());
+                generator.writeRawValue(field.getValue().substring(prefixLength));
+            } else {
+                generator.writeStringProperty(field.getKey(), field.getValue());
+            }
+        }
+        if (started) {
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeRemovedKeys(JsonGenerator generator, Map<String, String> mdc, Map<String, String> previous) {
+        List<String> removed = new ArrayList<>();
+        for (String key : previous.keySet()) {
+            if (!mdc.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        if (!removed.isEmpty()) {
+            generator.writeName("removed");
+            generator.writeArray(removed.toArray(new String[0]), 0, removed.size());
+        }
+    }
+
+    private static final class DeltaState {
+        private final String scopeId;
+        private Map<String, String> previous;
+        private int eventsSinceSnapshot;
+
+        private DeltaState(String scopeId) {
+            this.scopeId = scopeId;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.structuredPrefixLength;
+
+/**
+ * path to a value in MDC, like {@code Order.customerId} - the first segment is the MDC key, the remaining segments
+ * are field names in the JSON of a structured MDC value
+ * <p>
+ * values are extracted with a streaming parser that skips everything not on the path. The last extraction is cached
+ * per thread, so the JSON of an MDC value is only parsed once while it stays in MDC. Values flattened by
+ * {@link MdcFlattening} are found by their field name, which is the path.
+ */
+final class MdcFieldPath {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String path;
+    private final String mdcKey;
+    private final String[] fieldNames;
+    private final ThreadLocal<String[]> lastExtraction = new ThreadLocal<>(); // [raw MDC value, extracted value]
+
+    private MdcFieldPath(String path, String mdcKey, String[] fieldNames) {
+        this.path = path;
+        this.mdcKey = mdcKey;
+        this.fieldNames = fieldNames;
+    }
+
+    static MdcFieldPath parse(String path) {
+        String[] segments = path.trim().split("\\.");
+        if (segments.length == 0 || segments[0].isEmpty()) {
+            throw new IllegalArgumentException("MDC field path must start with an MDC key: " + path);
+        }
+        String[] fieldNames = new String[segments.length - 1];
+        System.arraycopy(segments, 1, fieldNames, 0, fieldNames.length);
+        return new MdcFieldPath(path.trim(), segments[0], fieldNames);
+    }
+
+    String getMdcKey() {
+        return mdcKey;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * extract this path's value from a raw MDC value
+     *
+     * @param mdcValue raw MDC value for this path's MDC key, may be null and may have the JSON prefix
+     *
+     * @return the value as text - null if there is no such value or it is not a scalar
+     */
+    String extract(String mdcValue) {
+        if (mdcValue == null) {
+            return null;
+        }
+        String[] cached = lastExtraction.get();
+        if (cached != null && cached[0] == mdcValue) { //identity is enough, because MDC hands out the same instance
+            return cached[1];
+        }
+        String extracted = extractUncached(mdcValue);
+        lastExtraction.set(new String[]{mdcValue, extracted});
+        return extracted;
+    }
+
+    private String extractUncached(String mdcValue) {
+        int prefixLength = structuredPrefixLength(mdcValue);
+        if (prefixLength == 0) {
+            return fieldNames.length == 0 ? mdcValue : null;
+        }
+        String json = mdcValue.substring(prefixLength);
+        try (JsonParser parser = JSON_FACTORY.createParser(ObjectReadContext.empty(), json)) {
+            JsonToken token = mdcValue.startsWith(FLAT_JSON_PREFIX) ? moveToFlatPath(parser) : moveToPath(parser);
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                return fieldNames.length == 0 ? json : null;
+            }
+            return token == null || token == JsonToken.VALUE_NULL ? null : parser.getText();
+        } catch (JacksonException e) {
+            return null;
+        }
+    }
+
+    private JsonToken moveToPath(JsonParser parser) {
+        JsonToken token = parser.nextToken();
+        for (String fieldName : fieldNames) {
+            if (token != JsonToken.START_OBJECT || !moveToField(parser, fieldName)) {
+                return null;
+            }
+            token = parser.nextToken();
+        }
+        return token;
+    }
+
+    private JsonToken moveToFlatPath(JsonParser parser) { //values flattened by MdcFlattening have the path as field name
+        if (fieldNames.length == 0) {
+            return parser.nextToken();
+        }
+        return parser.nextToken() == JsonToken.START_OBJECT && moveToField(parser, path) ? parser.nextToken() : null;
+    }
+
+    private static boolean moveToField(JsonParser parser, String fieldName) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            if (fieldName.equals(parser.currentName())) {
+                return true;
+            }
+            parser.nextToken();
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,221 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.ObjectWriteContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.StringWriter;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+
+/**
+ * settings for writing structured MDC values as flat fields like {@code Order.customer.id} instead of nested objects,
+ * which keeps the mapping of a search index small
+ * <p>
+ * values are flattened once, while {@link MdcContext} serializes them, and not for every log event. Flattened values
+ * are put into MDC with their own prefix, and {@link StructuredMdcJsonProvider} and {@link StructuredJsonEncoder}
+ * write their flat fields as top level fields of the event. Objects deeper
+ * than {@code maxDepth} are written as a JSON string in a single field. If a value has more than {@code maxFields}
+ * fields, the remaining ones are dropped and counted in a {@code <key>.fields_dropped} field. Values that are not
+ * objects are not flattened.
+ * <p>
+ * use {@link MdcContext#setFlattening(MdcFlattening)} to flatten values, for example
+ * {@code MdcContext.setFlattening(MdcFlattening.defaults().withMaxDepth(2))}.
+ */
+public final class MdcFlattening {
+    static final String DROPPED_FIELDS_SUFFIX = ".fields_dropped";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int maxDepth;
+    private final int maxFields;
+    private final ArrayHandling arrayHandling;
+
+    /**
+     * how arrays are written when a value is flattened
+     */
+    public enum ArrayHandling {
+        /**
+         * write the whole array as a JSON string in a single field, like {@code "Order.items":"[{\"id\":1}]"}
+         */
+        JSON_STRING,
+        /**
+         * write each element as its own field with the index in the name, like {@code "Order.items.0.id":1}
+         */
+        INDEXED,
+        /**
+         * do not write arrays at all
+         */
+        DROPPED
+    }
+
+    private MdcFlattening(int maxDepth, int maxFields, ArrayHandling arrayHandling) {
+        this.maxDepth = maxDepth;
+        this.maxFields = maxFields;
+        this.arrayHandling = arrayHandling;
+    }
+
+    /**
+     * @return settings with a maximum depth of 5, at most 100 fields per value and arrays written as JSON strings
+     */
+    public static MdcFlattening defaults() {
+        return new MdcFlattening(5, 100, ArrayHandling.JSON_STRING);
+    }
+
+    /**
+     * @param newMaxDepth number of nested objects below the MDC key that are flattened, deeper objects are written as
+     *     JSON strings
+     *
+     * @return a copy of these settings with the maximum depth
+     *
+     * @throws IllegalArgumentException if the maximum depth is less than 1
+     */
+    public MdcFlattening withMaxDepth(int newMaxDepth) {
+        if (newMaxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be at least 1, but was " + newMaxDepth);
+        }
+        return new MdcFlattening(newMaxDepth, maxFields, arrayHandling);
+    }
+
+    /**
+     * @param newMaxFields maximum number of fields per MDC value
+     *
+     * @return a copy of these settings with the maximum number of fields
+     *
+     * @throws IllegalArgumentException if the maximum number of fields is less than 1
+     */
+    public MdcFlattening withMaxFields(int newMaxFields) {
+        if (newMaxFields < 1) {
+            throw new IllegalArgumentException("maxFields must be at least 1, but was " + newMaxFields);
+        }
+        return new MdcFlattening(maxDepth, newMaxFields, arrayHandling);
+    }
+
+    /**
+     * @param newArrayHandling how arrays are written
+     *
+     * @return a copy of these settings with the array handling
+     */
+    public MdcFlattening withArrayHandling(ArrayHandling newArrayHandling) {
+        return new MdcFlattening(maxDepth, maxFields, newArrayHandling);
+    }
+
+    /**
+     * flatten a value that was serialized to JSON text - for serializers that cannot stream their tokens
+     *
+     * @param mdcKey MDC key of the value, which is the first segment of each field name
+     * @param json serialized value
+     *
+     * @return flat JSON object, or the JSON unchanged if it is not an object
+     */
+    String flatten(String mdcKey, String json) {
+        if (!json.startsWith("{")) {
+            return json;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(ObjectReadContext.empty(), json)) {
+            return flatten(mdcKey, parser);
+        }
+    }
+
+    /**
+     * flatten a value while reading the tokens of its serialization
+     *
+     * @param mdcKey MDC key of the value, which is the first segment of each field name
+     * @param parser tokens of the serialized value, before the first token
+     *
+     * @return flat JSON object, or the JSON of the value if it is not an object
+     */
+    String flatten(String mdcKey, JsonParser parser) {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(ObjectWriteContext.empty(), json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                generator.copyCurrentStructure(parser);
+            } else {
+                FieldCount fieldCount = new FieldCount();
+                generator.writeStartObject();
+                writeObject(parser, generator, mdcKey, 0, fieldCount);
+                if (fieldCount.dropped > 0) {
+                    generator.writeNumberProperty(mdcKey + DROPPED_FIELDS_SUFFIX, fieldCount.dropped);
+                }
+                generator.writeEndObject();
+            }
+        }
+        return json.toString();
+    }
+
+    /**
+     * @param mdcValue MDC value with {@link StructuredMdcJsonProvider#FLAT_JSON_PREFIX}
+     *
+     * @return parser on the start of the flat JSON object, whose properties are the flat fields
+     */
+    static JsonParser parseFlatFields(String mdcValue) {
+        JsonParser parser = JSON_FACTORY.createParser(ObjectReadContext.empty(), mdcValue.substring(FLAT_JSON_PREFIX.length()));
+        parser.nextToken();
+        return parser;
+    }
+
+    // the parser is on START_OBJECT and ends on the matching END_OBJECT
+    private void writeObject(JsonParser parser, JsonGenerator generator, String name, int depth, FieldCount fieldCount) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String fieldName = name + "." + parser.currentName();
+            parser.nextToken();
+            writeValue(parser, generator, fieldName, depth + 1, fieldCount);
+        }
+    }
+
+    // the parser is on the first token of the value and ends on its last token
+    private void writeValue(JsonParser parser, JsonGenerator generator, String name, int depth, FieldCount fieldCount) {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT && depth < maxDepth) {
+            writeObject(parser, generator, name, depth, fieldCount);
+        } else if (token == JsonToken.START_ARRAY && arrayHandling != ArrayHandling.JSON_STRING) {
+            writeArray(parser, generator, name, depth, fieldCount);
+        } else {
+            writeField(parser, generator, name, fieldCount);
+        }
+    }
+
+    // writes a scalar as it is and an object or array as a JSON string, unless there are too many fields already
+    private void writeField(JsonParser parser, JsonGenerator generator, String name, FieldCount fieldCount) {
+        if (fieldCount.written >= maxFields) {
+            parser.skipChildren();
+            fieldCount.dropped++;
+        } else {
+            generator.writeName(name);
+            if (parser.currentToken().isStructStart()) {
+                generator.writeString(toJsonString(parser));
+            } else {
+                generator.copyCurrentEvent(parser);
+            }
+            fieldCount.written++;
+        }
+    }
+
+    // the parser is on START_ARRAY and ends on the matching END_ARRAY
+    private void writeArray(JsonParser parser, JsonGenerator generator, String name, int depth, FieldCount fieldCount) {
+        if (arrayHandling == ArrayHandling.DROPPED) {
+            parser.skipChildren();
+        } else if (depth >= maxDepth) {
+            writeField(parser, generator, name, fieldCount);
+        } else {
+            for (int index = 0; parser.nextToken() != JsonToken.END_ARRAY; index++) {
+                writeValue(parser, generator, name + "." + index, depth + 1, fieldCount);
+            }
+        }
+    }
+
+    private static String toJsonString(JsonParser parser) {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(ObjectWriteContext.empty(), json)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return json.toString();
+    }
+
+    private static final class FieldCount {
+        private int written;
+        private int dropped;
+    }
+}
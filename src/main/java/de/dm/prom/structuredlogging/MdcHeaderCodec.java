@@ -0,0 +1,349 @@
+package de.dm.prom.structuredlogging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.structuredPrefixLength;
+
+/**
+ * encodes selected MDC keys into a compact header value, to pass structured MDC values on to other services, and
+ * decodes them there into an {@link MdcSnapshot} without serializing them again
+ * <p>
+ * the header is binary and deflated if that makes it smaller. As text, like for HTTP headers, it is base64url encoded.
+ * Keys are written in the order they were selected, and a key that would exceed the maximum length is left out. When
+ * decoding, keys that were not selected, structured values that are not valid JSON and plain values that look like
+ * structured ones are dropped, so that a caller cannot inject arbitrary content into the JSON logs.
+ * <p>
+ * the codec does not depend on a particular HTTP or messaging library - see the documentation on how to use it with
+ * Servlet filters, Spring's {@code ClientHttpRequestInterceptor} and Kafka record headers
+ */
+@Slf4j
+public final class MdcHeaderCodec {
+    /**
+     * header name that is used if no other one is set
+     */
+    public static final String DEFAULT_HEADER_NAME = "X-Structured-Mdc";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final byte FORMAT_PLAIN = 1;
+    private static final byte FORMAT_DEFLATED = 2;
+    private static final byte ENTRY_PLAIN = 0;
+    private static final byte ENTRY_STRUCTURED = 1;
+    private static final byte ENTRY_FLAT = 2;
+    private static final int MIN_LENGTH_TO_DEFLATE = 128;
+
+    private final List<String> mdcKeys;
+    private final String headerName;
+    private final int maxLength;
+
+    private MdcHeaderCodec(List<String> mdcKeys, String headerName, int maxLength) {
+        this.mdcKeys = mdcKeys;
+        this.headerName = headerName;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * create a codec for the given MDC keys, with the default header name and a maximum length of 4096 characters
+     *
+     * @param mdcKeys MDC keys to pass on, in order of priority
+     *
+     * @return codec for these keys
+     */
+    public static MdcHeaderCodec forKeys(String... mdcKeys) {
+        return new MdcHeaderCodec(List.of(mdcKeys), DEFAULT_HEADER_NAME, 4096);
+    }
+
+    /**
+     * create a copy of this codec with another header name
+     *
+     * @param newHeaderName header name to use
+     *
+     * @return codec with the header name
+     */
+    public MdcHeaderCodec withHeaderName(String newHeaderName) {
+        return new MdcHeaderCodec(mdcKeys, newHeaderName, maxLength);
+    }
+
+    /**
+     * create a copy of this codec with another maximum length of the base64 encoded header
+     *
+     * @param newMaxLength maximum length in characters
+     *
+     * @return codec with the maximum length
+     *
+     * @throws IllegalArgumentException if the maximum length is not positive
+     */
+    public MdcHeaderCodec withMaxLength(int newMaxLength) {
+        if (newMaxLength < 1) {
+            throw new IllegalArgumentException("maxLength must be positive, but was " + newMaxLength);
+        }
+        return new MdcHeaderCodec(mdcKeys, headerName, newMaxLength);
+    }
+
+    /**
+     * get the name of the header to use
+     *
+     * @return header name
+     */
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    /**
+     * encode the selected keys of the current thread's MDC
+     *
+     * @return binary header value, like for Kafka record headers - null if none of the keys is in MDC
+     */
+    public byte[] encode() {
+        int maxBytes = maxLength / 4 * 3;
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (String mdcKey : mdcKeys) {
+            String mdcValue = MDC.get(mdcKey);
+            if (mdcValue == null) {
+                continue;
+            }
+            byte[] entry = encodeEntry(mdcKey, mdcValue);
+            if (payload.size() + entry.length + 1 > maxBytes) {
+                log.debug("MDC key {} is not passed on because it would exceed the maximum header length of {}", mdcKey, maxLength);
+                continue;
+            }
+            payload.writeBytes(entry);
+        }
+        return payload.size() == 0 ? null : withFormat(payload.toByteArray());
+    }
+
+    /**
+     * encode the selected keys of the current thread's MDC as text
+     *
+     * @return base64url encoded header value, like for HTTP headers - null if none of the keys is in MDC
+     */
+    public String encodeToString() {
+        byte[] encoded = encode();
+        return encoded == null ? null : Base64.getUrlEncoder().withoutPadding().encodeToString(encoded);
+    }
+
+    /**
+     * encode the selected keys of the current thread's MDC as text and set them as a header, if any of them are in MDC
+     *
+     * @param headerSetter callback to set a header by name and value, like {@code request.getHeaders()::set}
+     */
+    public void inject(BiConsumer<String, String> headerSetter) {
+        String encoded = encodeToString();
+        if (encoded != null) {
+            headerSetter.accept(headerName, encoded);
+        }
+    }
+
+    /**
+     * decode a binary header value into a snapshot of the current thread's MDC with the decoded values added
+     *
+     * @param headerValue binary header value, may be null
+     *
+     * @return snapshot to open around the code that handles the call - the current MDC if the header is missing or
+     *     malformed
+     */
+    public MdcSnapshot decode(byte[] headerValue) {
+        MdcSnapshot current = MdcSnapshot.capture();
+        if (headerValue == null || headerValue.length == 0) {
+            return current;
+        }
+        try {
+            return current.withSerializedValues(decodeEntries(headerValue));
+        } catch (BufferUnderflowException | IllegalArgumentException | DataFormatException e) {
+            log.warn("Cannot decode structured MDC header {}: {}", headerName, e.getMessage());
+            return current;
+        }
+    }
+
+    /**
+     * decode a base64url encoded header value into a snapshot of the current thread's MDC with the decoded values added
+     *
+     * @param headerValue base64url encoded header value, may be null
+     *
+     * @return snapshot to open around the code that handles the call - the current MDC if the header is missing or
+     *     malformed
+     */
+    public MdcSnapshot decode(String headerValue) {
+        if (headerValue == null) {
+            return decode((byte[]) null);
+        }
+        if (headerValue.length() > maxLength) {
+            log.warn("Structured MDC header {} is ignored because it is longer than {} characters", headerName, maxLength);
+            return decode((byte[]) null);
+        }
+        try {
+            return decode(Base64.getUrlDecoder().decode(headerValue));
+        } catch (IllegalArgumentException e) {
+            log.warn("Cannot decode structured MDC header {}: {}", headerName, e.getMessage());
+            return decode((byte[]) null);
+        }
+    }
+
+    /**
+     * read this codec's header and decode it into a snapshot of the current thread's MDC with the decoded values added
+     *
+     * @param headerGetter callback to get a header value by name, like {@code request::getHeader}
+     *
+     * @return snapshot to open around the code that handles the call
+     */
+    public MdcSnapshot extract(Function<String, String> headerGetter) {
+        return decode(headerGetter.apply(headerName));
+    }
+
+    private static byte[] encodeEntry(String mdcKey, String mdcValue) {
+        byte entryType = ENTRY_PLAIN;
+        if (mdcValue.startsWith(JSON_PREFIX)) {
+            entryType = ENTRY_STRUCTURED;
+        } else if (mdcValue.startsWith(FLAT_JSON_PREFIX)) {
+            entryType = ENTRY_FLAT;
+        }
+        byte[] key = mdcKey.getBytes(StandardCharsets.UTF_8);
+        byte[] value = mdcValue.substring(structuredPrefixLength(mdcValue)).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(key.length + value.length + 11);
+        entry.write(entryType);
+        writeVarInt(entry, key.length);
+        entry.writeBytes(key);
+        writeVarInt(entry, value.length);
+        entry.writeBytes(value);
+        return entry.toByteArray();
+    }
+
+    private static byte[] withFormat(byte[] payload) {
+        if (payload.length >= MIN_LENGTH_TO_DEFLATE) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] deflated = new byte[payload.length];
+            int deflatedLength = deflater.deflate(deflated);
+            boolean smaller = deflater.finished();
+            deflater.end();
+            if (smaller) {
+                return prepend(FORMAT_DEFLATED, deflated, deflatedLength);
+            }
+        }
+        return prepend(FORMAT_PLAIN, payload, payload.length);
+    }
+
+    private static byte[] prepend(byte format, byte[] bytes, int length) {
+        byte[] result = new byte[length + 1];
+        result[0] = format;
+        System.arraycopy(bytes, 0, result, 1, length);
+        return result;
+    }
+
+    private Map<String, String> decodeEntries(byte[] headerValue) throws DataFormatException {
+        ByteBuffer payload = ByteBuffer.wrap(payloadOf(headerValue));
+        Map<String, String> values = new HashMap<>();
+        while (payload.hasRemaining()) {
+            byte entryType = payload.get();
+            String mdcKey = readString(payload);
+            String mdcValue = readString(payload);
+            if (!mdcKeys.contains(mdcKey)) {
+                log.debug("MDC key {} from header {} is ignored because it is not one of {}", mdcKey, headerName, mdcKeys);
+            } else if (entryType == ENTRY_PLAIN && structuredPrefixLength(mdcValue) > 0) {
+                log.warn("MDC key {} from header {} is ignored because its plain value has the prefix of a structured value", mdcKey, headerName);
+            } else if (entryType == ENTRY_PLAIN) {
+                values.put(mdcKey, mdcValue);
+            } else if (isValidJson(mdcValue, entryType == ENTRY_FLAT)) {
+                values.put(mdcKey, (entryType == ENTRY_FLAT ? FLAT_JSON_PREFIX : JSON_PREFIX) + mdcValue);
+            } else {
+                log.warn("MDC key {} from header {} is ignored because its value is not valid JSON", mdcKey, headerName);
+            }
+        }
+        return values;
+    }
+
+    private byte[] payloadOf(byte[] headerValue) throws DataFormatException {
+        if (headerValue[0] == FORMAT_PLAIN) {
+            return Arrays.copyOfRange(headerValue, 1, headerValue.length);
+        }
+        if (headerValue[0] != FORMAT_DEFLATED) {
+            throw new IllegalArgumentException("unknown format " + headerValue[0]);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(headerValue, 1, headerValue.length - 1);
+            byte[] inflated = new byte[maxLength]; //the uncompressed payload is never longer than the header may be
+            int inflatedLength = inflater.inflate(inflated);
+            if (!inflater.finished()) {
+                throw new IllegalArgumentException("deflated content is too long or incomplete");
+            }
+            return Arrays.copyOf(inflated, inflatedLength);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // a flattened value must be an object of scalars, because its fields are written as fields of the log event
+    private static boolean isValidJson(String json, boolean flat) {
+        try (JsonParser parser = JSON_FACTORY.createParser(ObjectReadContext.empty(), json)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || flat && token != JsonToken.START_OBJECT) {
+                return false;
+            }
+            if (flat) {
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    if (parser.nextToken().isStructStart()) {
+                        return false;
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+            return parser.nextToken() == null;
+        } catch (JacksonException e) {
+            return false;
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IllegalArgumentException("malformed length");
+            }
+            byte b = in.get();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("length " + length + " exceeds the header");
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,438 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.databind.BeanProperty;
+import tools.jackson.databind.JavaType;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.jsonFormatVisitors.JsonArrayFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonBooleanFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonFormatTypes;
+import tools.jackson.databind.jsonFormatVisitors.JsonFormatVisitable;
+import tools.jackson.databind.jsonFormatVisitors.JsonFormatVisitorWrapper;
+import tools.jackson.databind.jsonFormatVisitors.JsonIntegerFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonMapFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonNumberFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonObjectFormatVisitor;
+import tools.jackson.databind.jsonFormatVisitors.JsonStringFormatVisitor;
+import tools.jackson.databind.node.ObjectNode;
+import tools.jackson.databind.ser.BeanPropertyWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * generates an Elasticsearch index template for the structured MDC fields of an application, so that they do not
+ * have to be mapped dynamically
+ * <p>
+ * the JSON shape of each value type is derived from the JSON mapper that serializes MDC values. Strings are mapped to
+ * {@code keyword}, integers to {@code long}, other numbers to {@code double}, dates that Elasticsearch can parse to
+ * {@code date}, and maps or types that cannot be described, like recursive ones, to objects that are stored but not
+ * indexed. The template sets {@code dynamic: false}, so that fields that are not listed are not indexed either.
+ * <p>
+ * an MDC key can be registered for several types, as long as their shapes agree. Otherwise, the conflicting fields are
+ * reported by {@link #getConflicts()} and {@link #generate(String)} fails.
+ * <p>
+ * to generate a template at build time, run {@link #main(String[])} with an index pattern and the packages to scan for
+ * {@link MdcKeySupplier} implementations.
+ */
+public final class MdcIndexTemplateGenerator {
+    private static final int MAX_DEPTH = 10;
+    private static final Set<Class<?>> DATE_TYPES = Set.of(Instant.class, LocalDate.class, LocalDateTime.class, OffsetDateTime.class, Date.class);
+
+    private final JsonMapper jsonMapper;
+    private final Map<String, ObjectNode> mappings = new LinkedHashMap<>();
+    private final List<String> conflicts = new ArrayList<>();
+
+    /**
+     * create a generator that uses the default JSON mapper for MDC values
+     */
+    public MdcIndexTemplateGenerator() {
+        this(Jackson3MdcJsonSerializer.createDefaultJsonMapper());
+    }
+
+    /**
+     * create a generator that uses a custom JSON mapper - use the one you set with
+     * {@link MdcContext#setGlobalJsonMapper(JsonMapper)}
+     *
+     * @param jsonMapper JSON mapper that serializes MDC values
+     */
+    public MdcIndexTemplateGenerator(JsonMapper jsonMapper) {
+        this.jsonMapper = jsonMapper;
+        addField("@timestamp", "date");
+        addField("@version", "keyword");
+        addField("message", "text");
+        addField("logger_name", "keyword");
+        addField("thread_name", "keyword");
+        addField("level", "keyword");
+        addField("level_value", "long");
+        addField("stack_trace", "text");
+    }
+
+    /**
+     * generate a template for the MDC keys of all {@link MdcKeySupplier} implementations in the given packages
+     * <p>
+     * arguments: index pattern, followed by package names - the template is printed to stdout, conflicts to stderr
+     *
+     * @param args index pattern and packages to scan
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: MdcIndexTemplateGenerator <index pattern> <package>...");
+            System.exit(2);
+        }
+        MdcIndexTemplateGenerator generator = new MdcIndexTemplateGenerator();
+        for (int i = 1; i < args.length; i++) {
+            generator.addPackage(args[i]);
+        }
+        if (!generator.getConflicts().isEmpty()) {
+            generator.getConflicts().forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println(generator.generate(args[0]));
+    }
+
+    /**
+     * add a field that is not in MDC, like one from another JSON provider
+     *
+     * @param fieldName name of the field in the log event
+     * @param type Elasticsearch field type
+     *
+     * @return this generator
+     */
+    public MdcIndexTemplateGenerator addField(String fieldName, String type) {
+        ObjectNode mapping = jsonMapper.createObjectNode();
+        mapping.put("type", type);
+        return add(fieldName, mapping);
+    }
+
+    /**
+     * add the MDC key of a key supplier with the shape of its value type
+     *
+     * @param keySupplier {@link MdcKeySupplier} implementation
+     *
+     * @return this generator
+     *
+     * @throws IllegalArgumentException if the key supplier cannot be instantiated
+     */
+    public MdcIndexTemplateGenerator addKeySupplier(Class<? extends MdcKeySupplier<?>> keySupplier) {
+        String mdcKey = MdcContext.keyOf(keySupplier);
+        JavaType valueType = jsonMapper.getTypeFactory()
+                .findFirstTypeParameter(jsonMapper.constructType(keySupplier), MdcKeySupplier.class);
+        return add(mdcKey, mappingOf(valueType));
+    }
+
+    /**
+     * add an MDC key with the shape of a value type, like for {@link MdcContext#of(String, Object)}
+     *
+     * @param mdcKey MDC key
+     * @param valueType type of the values that are put into MDC with that key
+     *
+     * @return this generator
+     */
+    public MdcIndexTemplateGenerator addKey(String mdcKey, Type valueType) {
+        return add(mdcKey, mappingOf(jsonMapper.constructType(valueType)));
+    }
+
+    /**
+     * add all {@link MdcKeySupplier} implementations in a package and its subpackages - they need to be on the
+     * classpath of the current thread's context class loader
+     *
+     * @param packageName package to scan
+     *
+     * @return this generator
+     *
+     * @throws UncheckedIOException if the classpath cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public MdcIndexTemplateGenerator addPackage(String packageName) {
+        for (Class<?> type : findClasses(packageName)) {
+            if (MdcKeySupplier.class.isAssignableFrom(type) && !type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+                addKeySupplier((Class<? extends MdcKeySupplier<?>>) type);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * get the fields that were added with conflicting shapes
+     *
+     * @return descriptions of the conflicts, like {@code Order.id: long vs keyword}
+     */
+    public List<String> getConflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * generate a composable index template with the added fields
+     *
+     * @param indexPattern index pattern the template applies to, like {@code logs-myservice-*}
+     *
+     * @return index template as JSON
+     *
+     * @throws IllegalStateException if fields were added with conflicting shapes
+     */
+    public String generate(String indexPattern) {
+        if (!conflicts.isEmpty()) {
+            throw new IllegalStateException("MDC fields have conflicting shapes: " + conflicts);
+        }
+        ObjectNode template = jsonMapper.createObjectNode();
+        template.putArray("index_patterns").add(indexPattern);
+        ObjectNode mappingsNode = template.putObject("template").putObject("mappings");
+        mappingsNode.put("dynamic", false);
+        ObjectNode properties = mappingsNode.putObject("properties");
+        mappings.forEach(properties::set);
+        return jsonMapper.writerWithDefaultPrettyPrinter().writeValueAsString(template);
+    }
+
+    private MdcIndexTemplateGenerator add(String fieldName, ObjectNode mapping) {
+        ObjectNode existing = mappings.putIfAbsent(fieldName, mapping);
+        if (existing != null) {
+            merge(existing, mapping, fieldName);
+        }
+        return this;
+    }
+
+    private void merge(ObjectNode target, ObjectNode source, String path) {
+        if (target.has("properties") && source.has("properties")) {
+            ObjectNode targetProperties = (ObjectNode) target.get("properties");
+            for (Map.Entry<String, JsonNode> property : source.get("properties").properties()) {
+                JsonNode existing = targetProperties.get(property.getKey());
+                if (existing == null) {
+                    targetProperties.set(property.getKey(), property.getValue());
+                } else {
+                    merge((ObjectNode) existing, (ObjectNode) property.getValue(), path + "." + property.getKey());
+                }
+            }
+        } else if (!target.equals(source)) {
+            conflicts.add(path + ": " + describe(target) + " vs " + describe(source));
+        }
+    }
+
+    private static String describe(ObjectNode mapping) {
+        return mapping.has("type") ? mapping.get("type").asString() : "object";
+    }
+
+    private ObjectNode mappingOf(JavaType type) {
+        MappingVisitor visitor = new MappingVisitor(null, Set.of());
+        jsonMapper.acceptJsonFormatVisitor(type, visitor);
+        return visitor.getMapping();
+    }
+
+    private ObjectNode leafMapping(String type) {
+        ObjectNode mapping = jsonMapper.createObjectNode();
+        mapping.put("type", type);
+        return mapping;
+    }
+
+    private ObjectNode unindexedMapping() {
+        ObjectNode mapping = leafMapping("object");
+        mapping.put("enabled", false);
+        return mapping;
+    }
+
+    private static List<Class<?>> findClasses(String packageName) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        String resourcePath = packageName.replace('.', '/');
+        List<Class<?>> classes = new ArrayList<>();
+        try {
+            for (URL url : Collections.list(classLoader.getResources(resourcePath))) {
+                for (String className : classNamesIn(url, resourcePath)) {
+                    classes.add(Class.forName(className, false, classLoader));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException | URISyntaxException e) {
+            throw new IllegalStateException("Cannot scan package " + packageName, e);
+        }
+        return classes;
+    }
+
+    private static List<String> classNamesIn(URL url, String resourcePath) throws IOException, URISyntaxException {
+        if ("jar".equals(url.getProtocol())) {
+            JarURLConnection connection = (JarURLConnection) url.openConnection();
+            connection.setUseCaches(false); //closing a cached jar file would close it for the class loader as well
+            try (JarFile jarFile = connection.getJarFile()) {
+                return jarFile.stream()
+                        .map(JarEntry::getName)
+                        .filter(name -> name.startsWith(resourcePath + "/") && name.endsWith(".class"))
+                        .map(MdcIndexTemplateGenerator::toClassName)
+                        .toList();
+            }
+        }
+        Path root = Path.of(url.toURI());
+        Path classpathRoot = root;
+        for (int i = 0; i < resourcePath.split("/").length; i++) {
+            classpathRoot = classpathRoot.getParent();
+        }
+        Path base = classpathRoot;
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(file -> file.toString().endsWith(".class"))
+                    .map(file -> toClassName(base.relativize(file).toString().replace(File.separatorChar, '/')))
+                    .toList();
+        }
+    }
+
+    private static String toClassName(String resourceName) {
+        return resourceName.substring(0, resourceName.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * builds the mapping of one type from the callbacks of Jackson's format visitor
+     */
+    private final class MappingVisitor extends JsonFormatVisitorWrapper.Base {
+        private final Set<JavaType> enclosingTypes;
+        private ObjectNode mapping;
+
+        private MappingVisitor(SerializationContext context, Set<JavaType> enclosingTypes) {
+            super(context);
+            this.enclosingTypes = enclosingTypes;
+            this.mapping = unindexedMapping();
+        }
+
+        ObjectNode getMapping() {
+            return mapping;
+        }
+
+        @Override
+        public JsonObjectFormatVisitor expectObjectFormat(JavaType type) {
+            if (enclosingTypes.contains(type) || enclosingTypes.size() >= MAX_DEPTH) {
+                return null; //keep the unindexed mapping, because the type cannot be described
+            }
+            Set<JavaType> nestedEnclosingTypes = new HashSet<>(enclosingTypes);
+            nestedEnclosingTypes.add(type);
+            ObjectNode properties = jsonMapper.createObjectNode();
+            mapping = jsonMapper.createObjectNode();
+            mapping.set("properties", properties);
+            return new PropertiesVisitor(getContext(), properties, nestedEnclosingTypes);
+        }
+
+        @Override
+        public JsonArrayFormatVisitor expectArrayFormat(JavaType type) {
+            return new JsonArrayFormatVisitor.Base(getContext()) {
+                @Override
+                public void itemsFormat(JsonFormatVisitable handler, JavaType elementType) {
+                    mapping = mappingOf(handler, elementType, enclosingTypes); //Elasticsearch maps arrays like their elements
+                }
+
+                @Override
+                public void itemsFormat(JsonFormatTypes format) {
+                    mapping = switch (format) {
+                        case STRING -> leafMapping("keyword");
+                        case INTEGER -> leafMapping("long");
+                        case NUMBER -> leafMapping("double");
+                        case BOOLEAN -> leafMapping("boolean");
+                        default -> unindexedMapping();
+                    };
+                }
+            };
+        }
+
+        @Override
+        public JsonStringFormatVisitor expectStringFormat(JavaType type) {
+            mapping = leafMapping(DATE_TYPES.contains(type.getRawClass()) ? "date" : "keyword");
+            return null;
+        }
+
+        @Override
+        public JsonNumberFormatVisitor expectNumberFormat(JavaType type) {
+            mapping = leafMapping("double");
+            return null;
+        }
+
+        @Override
+        public JsonIntegerFormatVisitor expectIntegerFormat(JavaType type) {
+            mapping = leafMapping("long");
+            return null;
+        }
+
+        @Override
+        public JsonBooleanFormatVisitor expectBooleanFormat(JavaType type) {
+            mapping = leafMapping("boolean");
+            return null;
+        }
+
+        @Override
+        public JsonMapFormatVisitor expectMapFormat(JavaType type) {
+            mapping = unindexedMapping(); //keys are not known in advance
+            return null;
+        }
+
+        private ObjectNode mappingOf(JsonFormatVisitable handler, JavaType type, Set<JavaType> nestedEnclosingTypes) {
+            return mappingOfNested(getContext(), handler, type, nestedEnclosingTypes);
+        }
+    }
+
+    private ObjectNode mappingOfNested(SerializationContext context, JsonFormatVisitable handler, JavaType type, Set<JavaType> enclosingTypes) {
+        MappingVisitor visitor = new MappingVisitor(context, enclosingTypes);
+        if (handler == null) {
+            jsonMapper.acceptJsonFormatVisitor(type, visitor);
+        } else {
+            handler.acceptJsonFormatVisitor(visitor, type);
+        }
+        return visitor.getMapping();
+    }
+
+    /**
+     * collects the mappings of an object's properties
+     */
+    private final class PropertiesVisitor extends JsonObjectFormatVisitor.Base {
+        private final ObjectNode properties;
+        private final Set<JavaType> enclosingTypes;
+
+        private PropertiesVisitor(SerializationContext context, ObjectNode properties, Set<JavaType> enclosingTypes) {
+            super(context);
+            this.properties = properties;
+            this.enclosingTypes = enclosingTypes;
+        }
+
+        @Override
+        public void property(BeanProperty property) {
+            JavaType type = property.getType();
+            //a serializer assigned to the property, like one that redacts it, determines its JSON shape
+            JsonFormatVisitable handler = property instanceof BeanPropertyWriter writer && writer.hasSerializer() ?
+                    writer.getSerializer() :
+                    getContext().findPrimaryPropertySerializer(type, property);
+            properties.set(property.getName(), mappingOfNested(getContext(), handler, type, enclosingTypes));
+        }
+
+        @Override
+        public void property(String name, JsonFormatVisitable handler, JavaType propertyTypeHint) {
+            properties.set(name, mappingOfNested(getContext(), handler, propertyTypeHint, enclosingTypes));
+        }
+
+        @Override
+        public void optionalProperty(BeanProperty property) {
+            property(property);
+        }
+
+        @Override
+        public void optionalProperty(String name, JsonFormatVisitable handler, JavaType propertyTypeHint) {
+            property(name, handler, propertyTypeHint);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package de.dm.prom.structuredlogging;
+
+/**
+ * serializes MDC values to JSON, so that MdcContext does not depend on a particular version of Jackson
+ */
+interface MdcJsonSerializer {
+    /**
+     * serialize a value to JSON
+     *
+     * @param value value to serialize
+     *
+     * @return JSON representation of the value
+     *
+     * @throws Exception if the value cannot be serialized
+     */
+    String toJson(Object value) throws Exception;
+
+    /**
+     * serialize a value to flat JSON - this implementation flattens the JSON text of {@link #toJson(Object)}
+     *
+     * @param mdcKey MDC key of the value
+     * @param value value to serialize
+     * @param flattening settings for flattening
+     *
+     * @return flat JSON representation of the value
+     *
+     * @throws Exception if the value cannot be serialized
+     */
+    default String toFlatJson(String mdcKey, Object value, MdcFlattening flattening) throws Exception {
+        return flattening.flatten(mdcKey, toJson(value));
+    }
+}
@@ -0,0 +1,50 @@
+package de.dm.prom.structuredlogging;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * masked and hashed MDC keys of {@link StructuredMdcJsonProvider} and {@link StructuredJsonEncoder}, which redact
+ * plain MDC values the same way as {@link Masked} and {@link Hashed} properties of structured values
+ */
+final class MdcKeyRedaction {
+    private final Map<String, Integer> maskedKeys = new HashMap<>(); //key -> visible suffix
+    private final Set<String> hashedKeys = new HashSet<>();
+
+    /**
+     * @param maskedKey MDC key, optionally followed by the number of characters that stay visible, like {@code iban=4}
+     *
+     * @throws IllegalArgumentException if the number of visible characters is not a number
+     */
+    void addMaskedKey(String maskedKey) {
+        String[] split = maskedKey.split("=");
+        try {
+            maskedKeys.put(split[0].trim(), split.length > 1 ? Integer.parseInt(split[1].trim()) : 0);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("maskedKey (" + maskedKey + ") must be in the form key or key=visibleSuffix", e);
+        }
+    }
+
+    void addHashedKey(String hashedKey) {
+        hashedKeys.add(hashedKey.trim());
+    }
+
+    /**
+     * @param key MDC key
+     * @param plainValue MDC value that is not structured
+     *
+     * @return the value as it is written to the log
+     */
+    String redacted(String key, String plainValue) {
+        if (maskedKeys.isEmpty() && hashedKeys.isEmpty()) {
+            return plainValue;
+        }
+        Integer visibleSuffix = maskedKeys.get(key);
+        if (visibleSuffix != null) {
+            return Redaction.mask(plainValue, visibleSuffix);
+        }
+        return hashedKeys.contains(key) ? Redaction.hash(plainValue) : plainValue;
+    }
+}
@@ -0,0 +1,117 @@
+package de.dm.prom.structuredlogging;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * detects MDC content that a task leaves behind in a pooled thread, like from an {@link MdcContext} that was never
+ * closed or from {@code MDC.put} without a matching remove
+ * <p>
+ * when enabled, tasks decorated by {@link MdcTaskDecorator} or {@link SpringMdcTaskDecorator} compare the thread's MDC
+ * after the task, once the decorator restored it, with the thread's MDC before the task, and log a WARNing for each
+ * leaked key. Keys of a transferred context are removed by the decorator, so they cannot leak. Where an MDC context was opened is captured
+ * for every n-th context only, because capturing a stack trace is expensive. Leaked keys can also be removed
+ * automatically. When disabled, which is the default, this only costs a volatile read per MDC context.
+ */
+@Slf4j
+public final class MdcLeakDetector {
+    private static final ThreadLocal<Map<String, LeakOrigin>> ORIGINS = ThreadLocal.withInitial(HashMap::new);
+
+    private static volatile int samplingInterval; //0 if disabled
+    private static volatile boolean cleanUp;
+
+    private MdcLeakDetector() {
+    }
+
+    /**
+     * enable leak detection for decorated tasks
+     *
+     * @param newSamplingInterval capture where every n-th MDC context is opened - 1 captures all of them
+     * @param removeLeakedKeys whether to restore the MDC from before the task when keys leaked
+     *
+     * @throws IllegalArgumentException if the sampling interval is not positive
+     */
+    public static void enable(int newSamplingInterval, boolean removeLeakedKeys) {
+        if (newSamplingInterval < 1) {
+            throw new IllegalArgumentException("samplingInterval must be positive, but was " + newSamplingInterval);
+        }
+        cleanUp = removeLeakedKeys;
+        samplingInterval = newSamplingInterval;
+    }
+
+    /**
+     * disable leak detection - this is the default
+     */
+    public static void disable() {
+        samplingInterval = 0;
+    }
+
+    static void contextOpened(String key) {
+        int interval = samplingInterval;
+        if (interval > 0 && (interval == 1 || ThreadLocalRandom.current().nextInt(interval) == 0)) {
+            ORIGINS.get().put(key, new LeakOrigin(key, Thread.currentThread().getName()));
+        }
+    }
+
+    static void contextClosed(String key) {
+        if (samplingInterval > 0) {
+            ORIGINS.get().remove(key);
+        }
+    }
+
+    /**
+     * to be called when a task starts, before a context is transferred to its thread
+     *
+     * @return the thread's MDC before the task, null if leak detection is disabled
+     */
+    static Map<String, String> taskStarted() {
+        return samplingInterval > 0 ? MdcSnapshot.capture().getValues() : null;
+    }
+
+    /**
+     * to be called when a task is finished, after a transferred context was removed from its thread
+     *
+     * @param beforeTask the thread's MDC before the task, as returned by {@link #taskStarted()}
+     */
+    static void taskFinished(Map<String, String> beforeTask) {
+        if (beforeTask == null) {
+            return;
+        }
+        Map<String, LeakOrigin> origins = ORIGINS.get();
+        Map<String, String> afterTask = MdcSnapshot.capture().getValues();
+        boolean leaked = false;
+        for (Map.Entry<String, String> entry : afterTask.entrySet()) {
+            if (!Objects.equals(entry.getValue(), beforeTask.get(entry.getKey()))) {
+                leaked = true;
+                logLeak(entry.getKey(), origins.remove(entry.getKey()));
+            }
+        }
+        origins.keySet().retainAll(afterTask.keySet()); //origins of contexts that the decorator removed
+        if (leaked && cleanUp) {
+            MdcSnapshot.empty().withSerializedValues(beforeTask).apply();
+        }
+    }
+
+    private static void logLeak(String key, LeakOrigin origin) {
+        String message = "MDC key {} was not removed by the task that put it there, so it is attached to unrelated log events in thread {}.{}";
+        String cleanUpNote = cleanUp ? " It has been removed." : "";
+        if (origin == null) {
+            log.warn(message + " Its origin was not sampled.", key, Thread.currentThread().getName(), cleanUpNote);
+        } else {
+            log.warn(message, key, Thread.currentThread().getName(), cleanUpNote, origin);
+        }
+    }
+
+    /**
+     * stack trace of where a leaked MDC context was opened
+     */
+    private static final class LeakOrigin extends Exception {
+        private LeakOrigin(String key, String threadName) {
+            super("MDC context for key " + key + " was opened here in thread " + threadName);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.dm.prom.structuredlogging;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MDC keys of the {@link WithMdc} parameters of a method
+ * <p>
+ * the keys are resolved once per method and cached, so that a call only opens and closes the MDC contexts. Only
+ * methods with {@link WithMdc} parameters are cached, because Spring checks every method of every bean.
+ */
+final class MdcMethodScopes {
+    private static final MdcMethodScopes NONE = new MdcMethodScopes(new int[0], new String[0], null);
+    private static final Map<Method, MdcMethodScopes> CACHE = new ConcurrentHashMap<>();
+
+    private final int[] parameterIndexes;
+    private final String[] mdcKeys;
+    private final String caller; //the annotated method, for the warning about overwriting an MDC key
+
+    private MdcMethodScopes(int[] parameterIndexes, String[] mdcKeys, String caller) {
+        this.parameterIndexes = parameterIndexes;
+        this.mdcKeys = mdcKeys;
+        this.caller = caller;
+    }
+
+    static MdcMethodScopes forMethod(Method method) {
+        MdcMethodScopes cached = CACHE.get(method);
+        if (cached != null) {
+            return cached;
+        }
+        MdcMethodScopes resolved = resolve(method);
+        if (resolved.isEmpty()) {
+            return resolved;
+        }
+        MdcMethodScopes previous = CACHE.putIfAbsent(method, resolved);
+        return previous == null ? resolved : previous;
+    }
+
+    private static MdcMethodScopes resolve(Method method) {
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        List<Integer> indexes = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof WithMdc withMdc) {
+                    indexes.add(i);
+                    keys.add(mdcKeyOf(withMdc, parameterTypes[i]));
+                }
+            }
+        }
+        if (indexes.isEmpty()) {
+            return NONE;
+        }
+        String caller = method.getDeclaringClass().getName() + "." + method.getName() + "(@WithMdc)";
+        return new MdcMethodScopes(indexes.stream().mapToInt(Integer::intValue).toArray(), keys.toArray(new String[0]), caller);
+    }
+
+    @SuppressWarnings("unchecked") //annotation attributes cannot be generic
+    private static String mdcKeyOf(WithMdc withMdc, Class<?> parameterType) {
+        if (!withMdc.value().isEmpty()) {
+            return withMdc.value();
+        }
+        if (withMdc.keySupplier() != MdcKeySupplier.class) {
+            return MdcContext.keyOf((Class<? extends MdcKeySupplier<?>>) withMdc.keySupplier(), parameterType.getSimpleName());
+        }
+        return parameterType.getSimpleName();
+    }
+
+    boolean isEmpty() {
+        return parameterIndexes.length == 0;
+    }
+
+    /**
+     * call a method with its {@link WithMdc} arguments in MDC
+     *
+     * @param args arguments of the call
+     * @param call the actual call
+     * @param <T> return type of the call
+     *
+     * @return the return value of the call
+     *
+     * @throws Throwable anything thrown by the call
+     */
+    <T> T call(Object[] args, MdcSupplier<T, Throwable> call) throws Throwable {
+        MdcContext[] contexts = new MdcContext[parameterIndexes.length];
+        try {
+            for (int i = 0; i < parameterIndexes.length; i++) {
+                contexts[i] = MdcContext.forCaller(mdcKeys[i], args[parameterIndexes[i]], caller);
+            }
+            return call.get();
+        } finally {
+            for (int i = contexts.length - 1; i >= 0; i--) {
+                if (contexts[i] != null) {
+                    contexts[i].close();
+                }
+            }
+        }
+    }
+
+    String[] getMdcKeys() {
+        return mdcKeys.clone();
+    }
+}
@@ -0,0 +1,33 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an {@link MdcContext} that overwrites an existing MDC value
+ */
+@Name("de.dm.prom.structuredlogging.MdcOverwrite")
+@Label("MDC Overwrite")
+@Description("An MdcContext overwrote an existing MDC value with the same key")
+@Category("Structured Logging")
+@Enabled(false)
+final class MdcOverwriteEvent extends jdk.jfr.Event {
+    @Label("MDC Key")
+    String key;
+
+    @Label("Same Value")
+    @Description("Whether the existing value was overwritten with the same value")
+    boolean sameValue;
+
+    static void commit(String key, String newValue, String oldValue) {
+        MdcOverwriteEvent event = new MdcOverwriteEvent();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.sameValue = oldValue.equals(newValue);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package de.dm.prom.structuredlogging;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * creates proxies that put {@link WithMdc} parameters into MDC, for code that does not use Spring
+ */
+public final class MdcProxy {
+    private MdcProxy() {
+    }
+
+    /**
+     * wrap an object in a proxy that puts the {@link WithMdc} parameters of the interface's methods into MDC while
+     * they run
+     *
+     * @param interfaceType interface with {@link WithMdc} parameters
+     * @param target object to call
+     * @param <T> type of the interface
+     *
+     * @return proxy that implements the interface
+     *
+     * @throws IllegalArgumentException if interfaceType is not an interface
+     */
+    public static <T> T wrap(Class<T> interfaceType, T target) {
+        if (!interfaceType.isInterface()) {
+            throw new IllegalArgumentException(interfaceType.getName() + " is not an interface");
+        }
+        Map<Method, MdcMethodScopes> scopesByMethod = new HashMap<>();
+        for (Method method : interfaceType.getMethods()) {
+            MdcMethodScopes scopes = MdcMethodScopes.forMethod(method);
+            if (!scopes.isEmpty()) {
+                scopesByMethod.put(method, scopes);
+            }
+        }
+        Object proxy = Proxy.newProxyInstance(interfaceType.getClassLoader(), new Class<?>[]{interfaceType}, (p, method, args) -> {
+            MdcMethodScopes scopes = scopesByMethod.get(method);
+            MdcSupplier<Object, Throwable> call = () -> {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+            return scopes == null ? call.get() : scopes.call(args, call);
+        });
+        return interfaceType.cast(proxy);
+    }
+}
@@ -0,0 +1,130 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.BeanDescription;
+import tools.jackson.databind.JavaType;
+import tools.jackson.databind.SerializationConfig;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.jsonFormatVisitors.JsonFormatVisitorWrapper;
+import tools.jackson.databind.module.SimpleModule;
+import tools.jackson.databind.ser.BeanPropertyWriter;
+import tools.jackson.databind.ser.ValueSerializerModifier;
+import tools.jackson.databind.ser.std.StdSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Jackson 3 module that masks or hashes properties of MDC values while they are serialized
+ * <p>
+ * properties are selected with the annotations {@link Masked} and {@link Hashed}, or with rules for a type and a
+ * property name, for types you cannot annotate. Rules apply to subtypes too and use the property's name in JSON.
+ * Annotations take precedence over rules.
+ * Properties are redacted by the serializer that Jackson creates and caches once per type, so serialization does not
+ * get slower than writing the redacted value.
+ * <p>
+ * the default JSON mapper of {@link MdcContext} contains this module without rules - use
+ * {@link MdcContext#setRedactionRules(MdcRedactionModule)} to add rules, or add the module to your own JSON mapper.
+ * Add all rules before the module is used, because serializers that were already created do not change.
+ */
+public final class MdcRedactionModule extends SimpleModule {
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * create a module that redacts annotated properties, and properties that match its rules
+     */
+    public MdcRedactionModule() {
+        super("MdcRedactionModule");
+        setSerializerModifier(new RedactingSerializerModifier());
+    }
+
+    /**
+     * mask a property of a type, like {@link Masked} does
+     *
+     * @param type type that has the property
+     * @param propertyName name of the property in JSON
+     * @param visibleSuffix number of characters at the end of the value that stay visible
+     *
+     * @return this module
+     */
+    public MdcRedactionModule mask(Class<?> type, String propertyName, int visibleSuffix) {
+        rules.add(new Rule(type, propertyName, new RedactingSerializer(false, visibleSuffix)));
+        return this;
+    }
+
+    /**
+     * hash a property of a type, like {@link Hashed} does
+     *
+     * @param type type that has the property
+     * @param propertyName name of the property in JSON
+     *
+     * @return this module
+     */
+    public MdcRedactionModule hash(Class<?> type, String propertyName) {
+        rules.add(new Rule(type, propertyName, new RedactingSerializer(true, 0)));
+        return this;
+    }
+
+    private RedactingSerializer serializerFor(Class<?> beanClass, BeanPropertyWriter property) {
+        Masked masked = property.getAnnotation(Masked.class);
+        if (masked != null) {
+            return new RedactingSerializer(false, masked.visibleSuffix());
+        }
+        if (property.getAnnotation(Hashed.class) != null) {
+            return new RedactingSerializer(true, 0);
+        }
+        for (Rule rule : rules) {
+            if (rule.type.isAssignableFrom(beanClass) && rule.propertyName.equals(property.getName())) {
+                return rule.serializer;
+            }
+        }
+        return null;
+    }
+
+    private final class RedactingSerializerModifier extends ValueSerializerModifier {
+        @Override
+        public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription.Supplier beanDesc, List<BeanPropertyWriter> beanProperties) {
+            for (BeanPropertyWriter property : beanProperties) {
+                RedactingSerializer serializer = serializerFor(beanDesc.getBeanClass(), property);
+                if (serializer != null) {
+                    property.assignSerializer(serializer);
+                }
+            }
+            return beanProperties;
+        }
+    }
+
+    private static final class RedactingSerializer extends StdSerializer<Object> {
+        private final boolean hash;
+        private final int visibleSuffix;
+
+        private RedactingSerializer(boolean hash, int visibleSuffix) {
+            super(Object.class);
+            this.hash = hash;
+            this.visibleSuffix = visibleSuffix;
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator generator, SerializationContext context) {
+            String text = String.valueOf(value);
+            generator.writeString(hash ? Redaction.hash(text) : Redaction.mask(text, visibleSuffix));
+        }
+
+        @Override
+        public void acceptJsonFormatVisitor(JsonFormatVisitorWrapper visitor, JavaType typeHint) {
+            visitor.expectStringFormat(typeHint); //redacted values are strings, whatever the type of the property
+        }
+    }
+
+    private static final class Rule {
+        private final Class<?> type;
+        private final String propertyName;
+        private final RedactingSerializer serializer;
+
+        private Rule(Class<?> type, String propertyName, RedactingSerializer serializer) {
+            this.type = type;
+            this.propertyName = propertyName;
+            this.serializer = serializer;
+        }
+    }
+}
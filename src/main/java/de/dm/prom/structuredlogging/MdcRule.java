@@ -0,0 +1,87 @@
+package de.dm.prom.structuredlogging;
+
+import org.slf4j.MDC;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * rule that matches if a value in MDC is one of a set of values, like {@code Store.id == 4711} or
+ * {@code Order.customerId in {1, 2, 3}}
+ * <p>
+ * rules are compiled so that all rules on the same {@link MdcFieldPath} share a single lookup, which means that each
+ * structured MDC value is only parsed once while it stays in MDC, no matter how many rules refer to it.
+ */
+final class MdcRule {
+    private static final Pattern EQUALS = Pattern.compile("^\\s*([^\\s=]+)\\s*==\\s*(.+?)\\s*$");
+    private static final Pattern IN = Pattern.compile("^\\s*(\\S+)\\s+in\\s*\\{(.*)}\\s*$");
+
+    private final MdcFieldPath path;
+    private final Set<String> values;
+
+    private MdcRule(MdcFieldPath path, Set<String> values) {
+        this.path = path;
+        this.values = values;
+    }
+
+    /**
+     * compile rules, ignoring blank lines and comments starting with {@code #}
+     *
+     * @param rules rules in the form {@code path == value} or {@code path in {value, ...}}
+     *
+     * @return compiled rules, one per distinct path
+     *
+     * @throws IllegalArgumentException if a rule cannot be parsed
+     */
+    static MdcRule[] compile(Collection<String> rules) {
+        Map<String, Set<String>> valuesByPath = new LinkedHashMap<>();
+        for (String rule : rules) {
+            String trimmed = rule.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            Matcher equals = EQUALS.matcher(trimmed);
+            Matcher in = IN.matcher(trimmed);
+            if (equals.matches()) {
+                valuesByPath.computeIfAbsent(equals.group(1), path -> new HashSet<>()).add(unquote(equals.group(2)));
+            } else if (in.matches()) {
+                Set<String> values = valuesByPath.computeIfAbsent(in.group(1), path -> new HashSet<>());
+                Arrays.stream(in.group(2).split(","))
+                        .map(String::trim)
+                        .filter(value -> !value.isEmpty())
+                        .forEach(value -> values.add(unquote(value)));
+            } else {
+                throw new IllegalArgumentException("Rule must look like 'path == value' or 'path in {value, ...}': " + rule);
+            }
+        }
+        return valuesByPath.entrySet().stream()
+                .map(entry -> new MdcRule(MdcFieldPath.parse(entry.getKey()), Set.copyOf(entry.getValue())))
+                .toArray(MdcRule[]::new);
+    }
+
+    private static String unquote(String value) {
+        boolean quoted = value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"");
+        return quoted ? value.substring(1, value.length() - 1) : value;
+    }
+
+    /**
+     * check this rule against the current thread's MDC
+     *
+     * @return true if the value in MDC is one of this rule's values
+     */
+    boolean matchesMdc() {
+        String value = path.extract(MDC.get(path.getMdcKey()));
+        return value != null && values.contains(value);
+    }
+
+    @Override
+    public String toString() {
+        return path + " in " + values;
+    }
+}
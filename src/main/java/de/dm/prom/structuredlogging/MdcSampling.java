@@ -0,0 +1,129 @@
+package de.dm.prom.structuredlogging;
+
+import org.slf4j.MDC;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+
+/**
+ * decides per request whether heavy MDC values are put into MDC, so that only a fixed percentage of requests carries
+ * the full structured context
+ * <p>
+ * the decision is derived from the value of an MDC key that identifies the request across services, like a trace id,
+ * so all services that use the same key and percentage decide the same way for the same request. A value is sampled
+ * if the 64-bit FNV-1a hash of its UTF-8 bytes, taken as an unsigned number, modulo 10000 is less than the percentage
+ * times 100. The decision is cached per thread for as long as the value stays in MDC.
+ * <p>
+ * use {@link MdcContext#ofSampled(String, Object)} for heavy values - they are neither serialized nor put into MDC for
+ * requests that are not sampled. {@link StructuredMdcJsonProvider} records the decision in each event. Requests without
+ * a value for the sampling key are always sampled. Sampling is disabled by default, which samples all requests.
+ */
+public final class MdcSampling {
+    private static final long BUCKETS = 10_000;
+    private static final ThreadLocal<Decision> LAST_DECISION = new ThreadLocal<>();
+
+    private static volatile Config config; //null if disabled
+
+    private MdcSampling() {
+    }
+
+    /**
+     * enable sampling
+     *
+     * @param samplingKey MDC key whose value identifies a request, like a trace id
+     * @param sampledPercentage percentage of requests that are sampled, from 0 to 100
+     *
+     * @throws IllegalArgumentException if the percentage is not between 0 and 100
+     */
+    public static void enable(String samplingKey, double sampledPercentage) {
+        if (!(sampledPercentage >= 0 && sampledPercentage <= 100)) {
+            throw new IllegalArgumentException("sampledPercentage must be between 0 and 100, but was " + sampledPercentage);
+        }
+        config = new Config(samplingKey, Math.round(sampledPercentage * BUCKETS / 100));
+    }
+
+    /**
+     * disable sampling, so that all requests are sampled - this is the default
+     */
+    public static void disable() {
+        config = null;
+    }
+
+    /**
+     * @return whether the current request is sampled - true if sampling is disabled or there is no value for the
+     *     sampling key
+     */
+    public static boolean isSampled() {
+        Config current = config;
+        return current == null || decide(current, MDC.get(current.samplingKey));
+    }
+
+    /**
+     * @param mdc MDC of a log event
+     *
+     * @return the decision for the event's request, null if sampling is disabled or the event has no value for the
+     *     sampling key
+     */
+    static Boolean decisionFor(Map<String, String> mdc) {
+        Config current = config;
+        if (current == null || mdc == null) {
+            return null;
+        }
+        String value = mdc.get(current.samplingKey);
+        return value == null ? null : decide(current, value);
+    }
+
+    private static boolean decide(Config current, String value) {
+        if (value == null) {
+            return true;
+        }
+        Decision cached = LAST_DECISION.get();
+        if (cached != null && cached.config == current && cached.value == value) { //identity is enough, because MDC hands out the same instance
+            return cached.sampled;
+        }
+        boolean sampled = Long.remainderUnsigned(hash(idOf(value)), BUCKETS) < current.sampledBuckets;
+        LAST_DECISION.set(new Decision(current, value, sampled));
+        return sampled;
+    }
+
+    private static String idOf(String value) { //a structured string value is hashed like the plain string
+        if (!value.startsWith(JSON_PREFIX)) {
+            return value;
+        }
+        String json = value.substring(JSON_PREFIX.length());
+        return json.length() >= 2 && json.startsWith("\"") && json.endsWith("\"") ? json.substring(1, json.length() - 1) : json;
+    }
+
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class Config {
+        private final String samplingKey;
+        private final long sampledBuckets;
+
+        private Config(String samplingKey, long sampledBuckets) {
+            this.samplingKey = samplingKey;
+            this.sampledBuckets = sampledBuckets;
+        }
+    }
+
+    private static final class Decision {
+        private final Config config;
+        private final String value;
+        private final boolean sampled;
+
+        private Decision(Config config, String value, boolean sampled) {
+            this.config = config;
+            this.value = value;
+            this.sampled = sampled;
+        }
+    }
+}
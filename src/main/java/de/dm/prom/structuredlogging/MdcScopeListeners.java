@@ -0,0 +1,79 @@
+package de.dm.prom.structuredlogging;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * registry for components that need to know when the outermost {@link MdcContext} or {@link MdcSlot} of a key is closed
+ * <p>
+ * while listeners are registered, each outermost scope gets an id that is unique within the JVM, so that two scopes
+ * with the same MDC value are told apart, and a scope keeps its id while its value changes. Listeners receive the MDC
+ * key and the id of the closed scope. Opening and closing a scope only costs a volatile read if no listeners are
+ * registered.
+ */
+final class MdcScopeListeners {
+    private static final AtomicLong NEXT_SCOPE_ID = new AtomicLong();
+    private static final ThreadLocal<Map<String, Long>> OPEN_SCOPES = ThreadLocal.withInitial(HashMap::new);
+
+    @SuppressWarnings("unchecked")
+    private static volatile BiConsumer<String, Long>[] listeners = new BiConsumer[0];
+
+    private MdcScopeListeners() {
+    }
+
+    static synchronized void add(BiConsumer<String, Long> listener) {
+        BiConsumer<String, Long>[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    @SuppressWarnings("unchecked")
+    static synchronized void remove(BiConsumer<String, Long> listener) {
+        listeners = Arrays.stream(listeners)
+                .filter(existing -> existing != listener)
+                .toArray(BiConsumer[]::new);
+    }
+
+    /**
+     * to be called after the outermost scope of a key was put into MDC
+     *
+     * @param key the MDC key whose outermost scope is opened
+     */
+    static void outermostScopeOpened(String key) {
+        if (listeners.length > 0) {
+            OPEN_SCOPES.get().put(key, NEXT_SCOPE_ID.incrementAndGet());
+        }
+    }
+
+    /**
+     * @param key MDC key
+     *
+     * @return id of the current thread's open scope of the key - 0 if there is none, or it was opened while no
+     *     listeners were registered
+     */
+    static long currentScope(String key) {
+        Long scope = OPEN_SCOPES.get().get(key);
+        return scope == null ? 0 : scope;
+    }
+
+    /**
+     * to be called before the outermost scope of a key is removed from MDC
+     *
+     * @param key the MDC key whose outermost scope is closed
+     */
+    static void outermostScopeClosed(String key) {
+        BiConsumer<String, Long>[] currentListeners = listeners;
+        if (currentListeners.length == 0) {
+            return;
+        }
+        Long scope = OPEN_SCOPES.get().remove(key);
+        if (scope != null) {
+            for (BiConsumer<String, Long> listener : currentListeners) {
+                listener.accept(key, scope);
+            }
+        }
+    }
+}
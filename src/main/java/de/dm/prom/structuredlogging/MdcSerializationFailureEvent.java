@@ -0,0 +1,36 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a value that could not be serialized for MDC
+ */
+@Name("de.dm.prom.structuredlogging.MdcSerializationFailure")
+@Label("MDC Serialization Failure")
+@Description("A value could not be serialized and was replaced with a json_error placeholder")
+@Category("Structured Logging")
+@Enabled(false)
+final class MdcSerializationFailureEvent extends jdk.jfr.Event {
+    @Label("Value Type")
+    Class<?> valueType;
+
+    @Label("Exception Type")
+    Class<?> exceptionType;
+
+    @Label("Message")
+    String message;
+
+    static void commit(Object value, Exception exception) {
+        MdcSerializationFailureEvent event = new MdcSerializationFailureEvent();
+        if (event.shouldCommit()) {
+            event.valueType = value == null ? null : value.getClass();
+            event.exceptionType = exception.getClass();
+            event.message = exception.getMessage();
+            event.commit();
+        }
+    }
+}
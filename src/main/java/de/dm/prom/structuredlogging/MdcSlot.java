@@ -0,0 +1,66 @@
+package de.dm.prom.structuredlogging;
+
+import org.slf4j.MDC;
+
+/**
+ * a reusable MDC context for tight loops, to be used in a try-with-resources block around the loop
+ * <p>
+ * {@link #set(Object)} replaces the slot's value in MDC, which only costs serialization and one MDC put. The MDC
+ * state from outside the slot is read when the first value is set and restored once, when the slot is closed.
+ * <p>
+ * see {@link MdcContext#slot(Class)} for creating a slot
+ *
+ * @param <T> type of the values to write to MDC
+ */
+public final class MdcSlot<T> implements java.io.Closeable {
+    private final String key;
+    private String oldValue; //MDC value outside this slot
+    private boolean valueWasSet;
+
+    MdcSlot(String key) {
+        this.key = key;
+    }
+
+    /**
+     * write a new value to this slot's MDC key, replacing the previous value of this slot
+     *
+     * @param mdcValue the object to write to MDC
+     */
+    public void set(T mdcValue) {
+        String serialized = MdcContext.toMdcValue(key, mdcValue);
+        if (valueWasSet) {
+            MDC.put(key, serialized);
+        } else {
+            oldValue = MdcContext.putToMDCwithOverwriteWarning(key, serialized, 4); //always [4] because it is accessed through set()
+            valueWasSet = true;
+            if (oldValue == null) {
+                MdcScopeListeners.outermostScopeOpened(key);
+            }
+            MdcLeakDetector.contextOpened(key);
+        }
+    }
+
+    /**
+     * get the MDC key this slot writes to
+     *
+     * @return MDC key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void close() {
+        if (!valueWasSet) {
+            return;
+        }
+        MdcLeakDetector.contextClosed(key);
+        if (oldValue == null) {
+            MdcScopeListeners.outermostScopeClosed(key);
+            MDC.remove(key);
+        } else {
+            MDC.put(key, oldValue);
+        }
+        valueWasSet = false;
+    }
+}
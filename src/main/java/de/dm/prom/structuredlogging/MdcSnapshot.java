@@ -0,0 +1,177 @@
+package de.dm.prom.structuredlogging;
+
+import org.slf4j.MDC;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * immutable snapshot of MDC content with already serialized structured values, for code that does not run in a single
+ * thread, like reactive pipelines
+ * <p>
+ * values are serialized once, when they are added with {@link #with(String, Object)}. Applying the snapshot to a thread
+ * only replaces the thread's MDC map, so a snapshot can be stored in a reactive context and restored around every
+ * signal that logs without serializing again.
+ * <p>
+ * {@link #capture()}, {@link #apply()} and {@link #clear()} map directly to the methods of a context propagation
+ * {@code ThreadLocalAccessor} - see the documentation on how to use this
+ */
+public final class MdcSnapshot {
+    private static final MdcSnapshot EMPTY = new MdcSnapshot(Collections.emptyMap());
+
+    private final Map<String, String> values;
+
+    private MdcSnapshot(Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * get an empty snapshot
+     *
+     * @return snapshot without any MDC content
+     */
+    public static MdcSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * capture the current thread's MDC content - this does not serialize anything, because MDC only contains values
+     * that are already serialized
+     *
+     * @return snapshot of the current thread's MDC
+     */
+    public static MdcSnapshot capture() {
+        if (MDC.getMDCAdapter() instanceof PersistentMdcAdapter persistentMdcAdapter) {
+            Map<String, String> contextMap = persistentMdcAdapter.getPropertyMap();
+            return contextMap.isEmpty() ? EMPTY : new MdcSnapshot(contextMap); //immutable, so it does not need to be copied
+        }
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        if (contextMap == null || contextMap.isEmpty()) {
+            return EMPTY;
+        }
+        return new MdcSnapshot(Collections.unmodifiableMap(contextMap));
+    }
+
+    /**
+     * clear the current thread's MDC, which is the counterpart of applying an empty snapshot
+     */
+    public static void clear() {
+        MDC.clear();
+    }
+
+    /**
+     * create a snapshot that additionally contains a structured value - the value is serialized right away
+     *
+     * @param mdcKey MDC key to use
+     * @param mdcValue the object to serialize
+     *
+     * @return a new snapshot with the value, replacing a value with the same key
+     */
+    public MdcSnapshot with(String mdcKey, Object mdcValue) {
+        Map<String, String> newValues = new HashMap<>(values);
+        newValues.put(mdcKey, MdcContext.toMdcValue(mdcKey, mdcValue));
+        return new MdcSnapshot(Collections.unmodifiableMap(newValues));
+    }
+
+    /**
+     * create a snapshot that additionally contains a structured value - the value is serialized right away
+     *
+     * @param keySupplier {@link de.dm.prom.structuredlogging.MdcKeySupplier} implementation to describe which MDC key to use
+     * @param mdcValue the object to serialize
+     * @param <T> the type of the object to serialize
+     * @param <S> an implementation of MdcKeySupplier that supplies the MDC key for a certain type
+     *
+     * @return a new snapshot with the value, replacing a value with the same key
+     */
+    public <T, S extends MdcKeySupplier<T>> MdcSnapshot with(Class<S> keySupplier, T mdcValue) {
+        return with(MdcContext.keyOf(keySupplier, mdcValue.getClass().getSimpleName()), mdcValue);
+    }
+
+    MdcSnapshot withSerializedValues(Map<String, String> serializedValues) {
+        if (serializedValues.isEmpty()) {
+            return this;
+        }
+        Map<String, String> newValues = new HashMap<>(values);
+        newValues.putAll(serializedValues);
+        return new MdcSnapshot(Collections.unmodifiableMap(newValues));
+    }
+
+    /**
+     * get the MDC content of this snapshot
+     *
+     * @return unmodifiable map of MDC keys to MDC values, structured values still have their JSON prefix
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * replace the current thread's MDC with this snapshot's content
+     */
+    public void apply() {
+        if (values.isEmpty()) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(values);
+        }
+    }
+
+    /**
+     * replace the current thread's MDC with this snapshot's content until the returned scope is closed
+     *
+     * @return scope that restores the previous MDC content when it is closed, to use in a try-with-resources block
+     */
+    public Scope open() {
+        MdcSnapshot previous = capture();
+        apply();
+        return new Scope(previous);
+    }
+
+    /**
+     * execute a runnable with this snapshot's MDC content
+     *
+     * @param runnable the callback to execute
+     * @param <E> type of checked Exception thrown (if any, can usually be inferred)
+     *
+     * @throws E checked exception thrown by callback
+     */
+    public <E extends Throwable> void run(MdcRunnable<E> runnable) throws E {
+        try (Scope s = open()) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * execute a supplier with this snapshot's MDC content
+     *
+     * @param supplier the callback to execute
+     * @param <T> type of return value
+     * @param <E> type of checked Exception thrown (if any, can usually be inferred)
+     *
+     * @return the return value of the callback
+     *
+     * @throws E checked exception thrown by callback
+     */
+    public <T, E extends Throwable> T call(MdcSupplier<T, E> supplier) throws E {
+        try (Scope s = open()) {
+            return supplier.get();
+        }
+    }
+
+    /**
+     * MDC content of a thread while a snapshot is applied - closing it restores the content from before
+     */
+    public static final class Scope implements java.io.Closeable {
+        private final MdcSnapshot previous;
+
+        private Scope(MdcSnapshot previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            previous.apply();
+        }
+    }
+}
@@ -27,6 +27,8 @@ public final class MdcTaskDecorator {
      * analogous in usage to Spring's TaskDecorator
      * <p>
      * will log a WARNing and not copy the MDC context if the other thread already has content in its MDC context.
+     * <p>
+     * if {@link MdcLeakDetector} is enabled, MDC content that the runnable leaves behind is reported.
      *
      * @param runnable runnable to run
      * @param overwriteStrategy strategy to use when encountering MDC content in decorated threads
@@ -34,19 +36,14 @@ public final class MdcTaskDecorator {
      * @return the decorated runnable
      */
     public static Runnable decorate(Runnable runnable, OverwriteStrategy overwriteStrategy) {
-        Optional<Map<String, String>> parentContext = Optional.ofNullable(MDC.getCopyOfContextMap());
+        Optional<Map<String, String>> parentContext = Optional.ofNullable(getContextSnapshot());
         return () -> {
             boolean contextWasSet = false;
-            Optional<Map<String, String>> childContext = Optional.ofNullable(MDC.getCopyOfContextMap());
+            Optional<Map<String, String>> childContext = Optional.ofNullable(getContextSnapshot());
+            Map<String, String> contextBeforeTask = MdcLeakDetector.taskStarted();
             try {
                 if (parentContext.isPresent()) {
-                    Set<String> childKeys = getKeys(childContext);
-                    if (overwriteStrategy != OverwriteStrategy.PREVENT_OVERWRITE || childKeys.isEmpty()) {
-                        setContextInThread(overwriteStrategy, parentContext.get(), childKeys);
-                        contextWasSet = true;
-                    } else {
-                        log.warn("MDC context was not set for runnable because it was run in a thread that already had a context. MDC keys present: {}", childKeys);
-                    }
+                    contextWasSet = transferContext(overwriteStrategy, parentContext.get(), childContext);
                 }
                 runnable.run();
             } finally {
@@ -57,10 +54,33 @@ public final class MdcTaskDecorator {
                         MDC.clear();
                     }
                 }
+                MdcLeakDetector.taskFinished(contextBeforeTask);
             }
         };
     }
 
+    private static boolean transferContext(OverwriteStrategy overwriteStrategy, Map<String, String> parentContext,
+                                           Optional<Map<String, String>> childContext) {
+        MdcContextTransferEvent transferEvent = new MdcContextTransferEvent();
+        transferEvent.begin();
+        boolean contextWasSet = false;
+        Set<String> childKeys = getKeys(childContext);
+        if (overwriteStrategy != OverwriteStrategy.PREVENT_OVERWRITE || childKeys.isEmpty()) {
+            setContextInThread(overwriteStrategy, parentContext, childKeys);
+            contextWasSet = true;
+        } else {
+            log.warn("MDC context was not set for runnable because it was run in a thread that already had a context. MDC keys present: {}", childKeys);
+        }
+        if (transferEvent.shouldCommit()) {
+            transferEvent.transferredKeys = parentContext.size();
+            transferEvent.presentKeys = childKeys.size();
+            transferEvent.overwriteStrategy = overwriteStrategy.name();
+            transferEvent.contextWasSet = contextWasSet;
+            transferEvent.commit();
+        }
+        return contextWasSet;
+    }
+
     private static void setContextInThread(OverwriteStrategy overwriteStrategy, Map<String, String> contextMap, Set<String> presentKeys) {
         if (overwriteStrategy == OverwriteStrategy.LOG_OVERWRITE && !presentKeys.isEmpty()) {
             log.warn("MDC context will be set despite MDC keys being present in target thread. MDC keys present: {}", presentKeys);
@@ -70,6 +90,16 @@ public final class MdcTaskDecorator {
         log.debug("MDC context set for runnable."); //hopefully this helps when reading logs in the future
     }
 
+    private static Map<String, String> getContextSnapshot() { //null if there is no MDC content, like getCopyOfContextMap() with the default adapter
+        Map<String, String> snapshot;
+        if (MDC.getMDCAdapter() instanceof PersistentMdcAdapter persistentMdcAdapter) {
+            snapshot = persistentMdcAdapter.getPropertyMap(); //immutable, so it does not need to be copied
+        } else {
+            snapshot = MDC.getCopyOfContextMap();
+        }
+        return snapshot == null || snapshot.isEmpty() ? null : snapshot;
+    }
+
     private static Set<String> getKeys(Optional<Map<String, String>> contextMap) {
         if (contextMap.isPresent() && !contextMap.get().isEmpty()) {
             return contextMap.get().keySet();
@@ -0,0 +1,99 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MDC adapter that stores each thread's MDC in a persistent hash trie instead of logback's copy-on-write map
+ * <p>
+ * put and remove only copy the O(log n) nodes on the path to the changed key. Every state of the map is immutable, so
+ * log events, {@link MdcTaskDecorator} and {@link StructuredMdcJsonProvider} can use it as a snapshot without copying.
+ * This pays off with many keys in MDC and nested {@link MdcContext}s, which put and remove keys all the time.
+ * <p>
+ * extends {@link LogbackMDCAdapter} so that logback's logging events pick up the snapshot via
+ * {@link #getPropertyMap()}. Install it with {@link PersistentMdcServiceProvider}.
+ */
+public class PersistentMdcAdapter extends LogbackMDCAdapter {
+    private final ThreadLocal<PersistentMdcMap> contextMap = new ThreadLocal<>();
+
+    /**
+     * creates an adapter with empty MDC for all threads
+     */
+    public PersistentMdcAdapter() {
+    }
+
+    @Override
+    public void put(String key, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        contextMap.set(currentMap().with(key, value));
+    }
+
+    @Override
+    public String get(String key) {
+        PersistentMdcMap map = contextMap.get();
+        return map == null || key == null ? null : map.get(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        PersistentMdcMap map = contextMap.get();
+        if (map != null && key != null) {
+            PersistentMdcMap newMap = map.without(key);
+            if (newMap != map) {
+                contextMap.set(newMap);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        contextMap.remove();
+    }
+
+    /**
+     * get the current thread's MDC as an immutable snapshot - this does not copy anything
+     *
+     * @return immutable MDC contents of the current thread, never null
+     */
+    @Override
+    public Map<String, String> getPropertyMap() {
+        return currentMap();
+    }
+
+    @Override
+    public Map<String, String> getCopyOfContextMap() {
+        PersistentMdcMap map = contextMap.get();
+        return map == null ? null : new HashMap<>(map);
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        PersistentMdcMap map = contextMap.get();
+        return map == null ? null : map.keySet();
+    }
+
+    /**
+     * replace the current thread's MDC - a map obtained from {@link #getPropertyMap()} is adopted as-is, without copying
+     *
+     * @param contextMap new MDC contents
+     */
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"}) // raw type is inherited from LogbackMDCAdapter
+    public void setContextMap(Map contextMap) {
+        if (contextMap == null || contextMap.isEmpty()) {
+            this.contextMap.remove();
+        } else {
+            this.contextMap.set(PersistentMdcMap.copyOf(contextMap));
+        }
+    }
+
+    private PersistentMdcMap currentMap() {
+        PersistentMdcMap map = contextMap.get();
+        return map == null ? PersistentMdcMap.EMPTY : map;
+    }
+}
@@ -0,0 +1,379 @@
+package de.dm.prom.structuredlogging;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * immutable MDC map backed by a persistent hash array mapped trie (HAMT)
+ * <p>
+ * {@link #with(String, String)} and {@link #without(String)} return a new map that shares all untouched nodes with
+ * this one, so that changing the map costs O(log n) instead of a full copy, and every instance can be handed out as a
+ * snapshot without copying it.
+ */
+final class PersistentMdcMap extends AbstractMap<String, String> {
+    static final PersistentMdcMap EMPTY = new PersistentMdcMap(BitmapNode.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object NOT_FOUND = new Object();
+
+    private final Node root;
+    private final int size;
+    private Set<Map.Entry<String, String>> entrySet;
+
+    private PersistentMdcMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static PersistentMdcMap copyOf(Map<String, String> map) {
+        if (map instanceof PersistentMdcMap persistentMap) {
+            return persistentMap;
+        }
+        PersistentMdcMap result = EMPTY;
+        if (map != null) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                result = result.with(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    PersistentMdcMap with(String key, String value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMdcMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    PersistentMdcMap without(String key) {
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? EMPTY : new PersistentMdcMap(newRoot, size - 1);
+    }
+
+    @Override
+    public String get(Object key) {
+        Object value = find(key);
+        return value == NOT_FOUND ? null : (String) value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != NOT_FOUND;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        root.forEach(action);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new EntryIterator(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private Object find(Object key) {
+        if (!(key instanceof String stringKey)) {
+            return NOT_FOUND;
+        }
+        return root.find(0, hash(stringKey), stringKey);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] copyAndSet(Object[] array, int index, Object value) {
+        Object[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    private static Object[] insertPair(Object[] array, int index, Object key, Object value) {
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, 2 * index);
+        copy[2 * index] = key;
+        copy[2 * index + 1] = value;
+        System.arraycopy(array, 2 * index, copy, 2 * (index + 1), array.length - 2 * index);
+        return copy;
+    }
+
+    private static Object[] removePair(Object[] array, int index) {
+        Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, 2 * index);
+        System.arraycopy(array, 2 * (index + 1), copy, 2 * index, copy.length - 2 * index);
+        return copy;
+    }
+
+    /**
+     * trie node - entries are stored as pairs in a flat array: [key, value] for an entry or [null, node] for a sub-trie
+     */
+    private abstract static class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object find(int shift, int hash, String key);
+
+        abstract Node put(int shift, int hash, String key, String value, boolean[] added);
+
+        abstract Node remove(int shift, int hash, String key);
+
+        boolean isSingleEntry() {
+            return array.length == 2 && array[0] != null;
+        }
+
+        void forEach(BiConsumer<? super String, ? super String> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept((String) array[i], (String) array[i + 1]);
+                }
+            }
+        }
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int index = index(bit);
+            Object existingKey = array[2 * index];
+            Object existingValue = array[2 * index + 1];
+            if (existingKey == null) {
+                return ((Node) existingValue).find(shift + BITS, hash, key);
+            }
+            return key.equals(existingKey) ? existingValue : NOT_FOUND;
+        }
+
+        @Override
+        Node put(int shift, int hash, String key, String value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insertPair(array, index, key, value));
+            }
+            Object existingKey = array[2 * index];
+            Object existingValue = array[2 * index + 1];
+            if (existingKey == null) {
+                Node subNode = (Node) existingValue;
+                Node newSubNode = subNode.put(shift + BITS, hash, key, value, added);
+                return newSubNode == subNode ? this : new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, newSubNode));
+            }
+            if (key.equals(existingKey)) {
+                if (value == null ? existingValue == null : value.equals(existingValue)) {
+                    return this;
+                }
+                return new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, value));
+            }
+            added[0] = true;
+            Node subNode = createNode(shift + BITS, (String) existingKey, existingValue, hash, key, value);
+            Object[] newArray = copyAndSet(array, 2 * index, null);
+            newArray[2 * index + 1] = subNode;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        Node remove(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object existingKey = array[2 * index];
+            if (existingKey == null) {
+                Node subNode = (Node) array[2 * index + 1];
+                Node newSubNode = subNode.remove(shift + BITS, hash, key);
+                if (newSubNode == subNode) {
+                    return this;
+                }
+                if (newSubNode == null) {
+                    return bitmap == bit ? null : new BitmapNode(bitmap ^ bit, removePair(array, index));
+                }
+                if (newSubNode.isSingleEntry()) {
+                    //pull single entries up again so that the trie stays as shallow as possible
+                    Object[] newArray = copyAndSet(array, 2 * index, newSubNode.array[0]);
+                    newArray[2 * index + 1] = newSubNode.array[1];
+                    return new BitmapNode(bitmap, newArray);
+                }
+                return new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, newSubNode));
+            }
+            if (!key.equals(existingKey)) {
+                return this;
+            }
+            return bitmap == bit ? null : new BitmapNode(bitmap ^ bit, removePair(array, index));
+        }
+
+        private static Node createNode(int shift, String key1, Object value1, int hash2, String key2, String value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.put(shift, hash1, key1, (String) value1, added)
+                    .put(shift, hash2, key2, value2, added);
+        }
+    }
+
+    /**
+     * node for keys whose hashes are completely equal
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i / 2;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, String key) {
+            int index = indexOf(key);
+            return index < 0 ? NOT_FOUND : array[2 * index + 1];
+        }
+
+        @Override
+        Node put(int shift, int hash, String key, String value, boolean[] added) {
+            if (hash != this.hash) {
+                //nest this node in a bitmap node so that the new key can be put next to it
+                return new BitmapNode(bit(this.hash, shift), new Object[]{null, this})
+                        .put(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index < 0) {
+                added[0] = true;
+                return new CollisionNode(hash, insertPair(array, array.length / 2, key, value));
+            }
+            Object existingValue = array[2 * index + 1];
+            if (value == null ? existingValue == null : value.equals(existingValue)) {
+                return this;
+            }
+            return new CollisionNode(hash, copyAndSet(array, 2 * index + 1, value));
+        }
+
+        @Override
+        Node remove(int shift, int hash, String key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            return array.length == 2 ? null : new CollisionNode(hash, removePair(array, index));
+        }
+    }
+
+    private static final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        //a 32 bit hash with 5 bits per level is exhausted after 7 levels, collision nodes add one more
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Map.Entry<String, String> next;
+
+        EntryIterator(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                int position = positions[depth];
+                if (position >= node.array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = position + 2;
+                if (node.array[position] == null) {
+                    depth++;
+                    nodes[depth] = (Node) node.array[position + 1];
+                    positions[depth] = 0;
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>((String) node.array[position], (String) node.array[position + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> current = next;
+            advance();
+            return current;
+        }
+    }
+}
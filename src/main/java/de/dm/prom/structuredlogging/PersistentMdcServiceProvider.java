@@ -0,0 +1,69 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LogbackServiceProvider;
+import ch.qos.logback.classic.util.ContextInitializer;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.status.StatusUtil;
+import ch.qos.logback.core.util.StatusPrinter2;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.helpers.Reporter;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+/**
+ * SLF4J service provider that initializes logback just like logback's own provider, but with a
+ * {@link PersistentMdcAdapter} as MDC adapter
+ * <p>
+ * this provider is not registered automatically. Select it explicitly with the system property
+ * {@code -Dslf4j.provider=de.dm.prom.structuredlogging.PersistentMdcServiceProvider}
+ */
+public class PersistentMdcServiceProvider implements SLF4JServiceProvider {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final IMarkerFactory markerFactory = new BasicMarkerFactory();
+    private final PersistentMdcAdapter mdcAdapter = new PersistentMdcAdapter();
+
+    /**
+     * creates this provider according to SLF4J's contract
+     */
+    public PersistentMdcServiceProvider() {
+    }
+
+    @Override
+    public void initialize() {
+        loggerContext.setName(CoreConstants.DEFAULT_CONTEXT_NAME);
+        loggerContext.setMDCAdapter(mdcAdapter);
+        try {
+            new ContextInitializer(loggerContext).autoConfig();
+        } catch (JoranException e) {
+            Reporter.error("Failed to auto configure default logger context", e);
+        }
+        if (!StatusUtil.contextHasStatusListener(loggerContext)) {
+            new StatusPrinter2().printInCaseOfErrorsOrWarnings(loggerContext);
+        }
+        loggerContext.start();
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggerContext;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markerFactory;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return LogbackServiceProvider.REQUESTED_API_VERSION;
+    }
+}
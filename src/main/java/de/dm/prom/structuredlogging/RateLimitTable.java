@@ -0,0 +1,114 @@
+package de.dm.prom.structuredlogging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded, lock-free table of token buckets per value
+ * <p>
+ * the table is set-associative: a value can only live in one of {@value #WAYS} slots determined by its hash. If all of
+ * them are taken by other values, the least recently used one is evicted. The buckets themselves implement the
+ * generic cell rate algorithm, which is equivalent to a token bucket but only needs a single CAS per event.
+ */
+final class RateLimitTable {
+    static final int WAYS = 8;
+
+    private final AtomicReferenceArray<Bucket> slots;
+    private final int setMask;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLong suppressedForEvictedValues = new AtomicLong();
+
+    RateLimitTable(int maxValues, long emissionIntervalNanos, int burst) {
+        int capacity = Integer.highestOneBit(Math.max(WAYS, maxValues) - 1) << 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        setMask = capacity / WAYS - 1;
+        this.emissionIntervalNanos = emissionIntervalNanos;
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+    }
+
+    boolean tryAcquire(String value, long now) {
+        Bucket bucket = bucketFor(value, now);
+        bucket.lastAccess = now;
+        if (bucket.tryAcquire(now)) {
+            return true;
+        }
+        bucket.suppressed.incrementAndGet();
+        return false;
+    }
+
+    private Bucket bucketFor(String value, long now) {
+        int hash = value.hashCode();
+        int firstSlot = ((hash ^ (hash >>> 16)) & setMask) * WAYS;
+        int emptySlot = -1;
+        int leastRecentlyUsedSlot = -1;
+        Bucket leastRecentlyUsed = null;
+        for (int i = firstSlot; i < firstSlot + WAYS; i++) {
+            Bucket bucket = slots.get(i);
+            if (bucket == null) {
+                emptySlot = emptySlot < 0 ? i : emptySlot;
+            } else if (bucket.value.equals(value)) {
+                return bucket;
+            } else if (leastRecentlyUsed == null || bucket.lastAccess - leastRecentlyUsed.lastAccess < 0) {
+                leastRecentlyUsedSlot = i;
+                leastRecentlyUsed = bucket;
+            }
+        }
+        Bucket newBucket = new Bucket(value, now);
+        if (emptySlot >= 0) {
+            slots.compareAndSet(emptySlot, null, newBucket);
+        } else if (slots.compareAndSet(leastRecentlyUsedSlot, leastRecentlyUsed, newBucket)) {
+            suppressedForEvictedValues.addAndGet(leastRecentlyUsed.suppressed.get());
+        }
+        //if another thread won the race for the slot, the new bucket is used once without being stored
+        return newBucket;
+    }
+
+    /**
+     * get a summary of all suppressed events since the last call and reset the counts
+     *
+     * @return summary of suppressed events per value, null if nothing was suppressed
+     */
+    String drainSuppressedSummary() {
+        List<String> entries = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            Bucket bucket = slots.get(i);
+            long suppressed = bucket == null ? 0 : bucket.suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                entries.add(bucket.value + ": " + suppressed);
+            }
+        }
+        long suppressedForEvicted = suppressedForEvictedValues.getAndSet(0);
+        if (suppressedForEvicted > 0) {
+            entries.add("(evicted values): " + suppressedForEvicted);
+        }
+        return entries.isEmpty() ? null : String.join(", ", entries);
+    }
+
+    private final class Bucket {
+        private final String value;
+        private final AtomicLong theoreticalArrivalTime;
+        private final AtomicLong suppressed = new AtomicLong();
+        private volatile long lastAccess;
+
+        Bucket(String value, long theoreticalArrivalTime) {
+            this.value = value;
+            this.theoreticalArrivalTime = new AtomicLong(theoreticalArrivalTime);
+        }
+
+        boolean tryAcquire(long now) {
+            while (true) {
+                long tat = theoreticalArrivalTime.get();
+                long earliest = tat - now < 0 ? now : tat;
+                if (earliest - now > burstToleranceNanos) {
+                    return false;
+                }
+                if (theoreticalArrivalTime.compareAndSet(tat, earliest + emissionIntervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
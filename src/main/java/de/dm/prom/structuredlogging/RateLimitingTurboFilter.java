@@ -0,0 +1,161 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.Duration;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * turbo filter that limits the rate of log events per distinct value of structured MDC fields, so that a single
+ * customer or store cannot flood the logs
+ * <p>
+ * each {@code limitBy} is an MDC key, optionally followed by a path into the JSON of a structured MDC value, like
+ * {@code Order.customerId}. Events are limited with a token bucket per distinct combination of those values: at most
+ * {@code burst} events at once and {@code eventsPerSecond} on average. Events without any of the values are not
+ * limited. The buckets are kept in a bounded table that evicts the least recently used ones.
+ * <p>
+ * every {@code summaryInterval}, a WARN summary of the suppressed events per value is logged by this class's logger.
+ */
+public class RateLimitingTurboFilter extends TurboFilter {
+    private static final String SUMMARY_LOGGER_NAME = RateLimitingTurboFilter.class.getName();
+
+    private final List<MdcFieldPath> limitBy = new ArrayList<>();
+    private final AtomicLong nextSummaryAt = new AtomicLong();
+    private Level level = Level.TRACE;
+    private double eventsPerSecond = 10;
+    private int burst = 20;
+    private int maxTrackedValues = 10_000;
+    private Duration summaryInterval = Duration.buildByMinutes(1);
+    private RateLimitTable table;
+
+    /**
+     * creates this filter according to logback's contract
+     */
+    public RateLimitingTurboFilter() {
+    }
+
+    @Override
+    public void start() {
+        if (limitBy.isEmpty()) {
+            addError("No limitBy set for " + getName());
+            return;
+        }
+        if (eventsPerSecond <= 0 || burst < 1 || maxTrackedValues < 1) {
+            addError("eventsPerSecond, burst and maxTrackedValues must be positive for " + getName());
+            return;
+        }
+        table = new RateLimitTable(maxTrackedValues, (long) (1_000_000_000L / eventsPerSecond), burst);
+        nextSummaryAt.set(System.nanoTime() + summaryIntervalNanos());
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level eventLevel, String format, Object[] params, Throwable t) {
+        if (!isStarted() || format == null || !eventLevel.isGreaterOrEqual(level) || SUMMARY_LOGGER_NAME.equals(logger.getName())) {
+            return FilterReply.NEUTRAL; //format is null when only isXxxEnabled() is checked
+        }
+        if (!eventLevel.isGreaterOrEqual(logger.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL; //turbo filters run before the level check, so disabled events must not take a token
+        }
+        long now = System.nanoTime();
+        logSummaryIfDue(logger, now);
+        String value = currentValue();
+        if (value == null) {
+            return FilterReply.NEUTRAL;
+        }
+        return table.tryAcquire(value, now) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    private String currentValue() {
+        if (limitBy.size() == 1) {
+            MdcFieldPath path = limitBy.get(0);
+            return path.extract(MDC.get(path.getMdcKey()));
+        }
+        StringJoiner joiner = new StringJoiner(", ");
+        boolean anyValue = false;
+        for (MdcFieldPath path : limitBy) {
+            String value = path.extract(MDC.get(path.getMdcKey()));
+            anyValue |= value != null;
+            joiner.add(path + "=" + value);
+        }
+        return anyValue ? joiner.toString() : null;
+    }
+
+    private void logSummaryIfDue(Logger logger, long now) {
+        long dueAt = nextSummaryAt.get();
+        if (now - dueAt < 0 || !nextSummaryAt.compareAndSet(dueAt, now + summaryIntervalNanos())) {
+            return;
+        }
+        String summary = table.drainSuppressedSummary();
+        if (summary != null) {
+            logger.getLoggerContext().getLogger(SUMMARY_LOGGER_NAME)
+                    .warn("Log events were suppressed by rate limiting on {}: {}", limitBy, summary);
+        }
+    }
+
+    private long summaryIntervalNanos() {
+        return summaryInterval.getMilliseconds() * 1_000_000L;
+    }
+
+    /**
+     * add an MDC key to limit by, optionally followed by a path in its JSON value, like {@code Order.customerId}
+     *
+     * @param path MDC key and optional path
+     */
+    public void addLimitBy(String path) {
+        limitBy.add(MdcFieldPath.parse(path));
+    }
+
+    /**
+     * set the lowest level to limit - defaults to TRACE, which limits all events
+     *
+     * @param level lowest level to limit
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.TRACE);
+    }
+
+    /**
+     * set the average number of events per second that are allowed per value - defaults to 10
+     *
+     * @param eventsPerSecond allowed events per second
+     */
+    public void setEventsPerSecond(double eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    /**
+     * set the number of events that are allowed at once per value - defaults to 20
+     *
+     * @param burst allowed events at once
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * set the number of values to track - defaults to 10000, rounded up to the next power of two
+     *
+     * @param maxTrackedValues number of token buckets
+     */
+    public void setMaxTrackedValues(int maxTrackedValues) {
+        this.maxTrackedValues = maxTrackedValues;
+    }
+
+    /**
+     * set the interval for logging a summary of suppressed events - defaults to 1 minute
+     *
+     * @param summaryInterval interval between summaries
+     */
+    public void setSummaryInterval(Duration summaryInterval) {
+        this.summaryInterval = summaryInterval;
+    }
+}
@@ -0,0 +1,83 @@
+package de.dm.prom.structuredlogging;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * masking and hashing of values, shared by {@link MdcRedactionModule} for structured values and
+ * {@link MdcKeyRedaction} for plain MDC values, so that both produce the same output for the same value
+ * <p>
+ * hashes are HMAC-SHA-256 with a secret, so that values from a small set, like email addresses or card numbers, cannot
+ * be found by hashing candidates. Without a secret set with {@link #setSecret(String)}, a random one is used, so hashes
+ * only match within the same JVM.
+ */
+final class Redaction {
+    static final String MASK = "***";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_BYTES = 16;
+    private static final ThreadLocal<KeyedMac> HMAC = ThreadLocal.withInitial(KeyedMac::new);
+
+    private static volatile SecretKeySpec secret = randomSecret();
+
+    private Redaction() {
+    }
+
+    static String mask(String value, int visibleSuffix) {
+        if (visibleSuffix <= 0 || value.length() <= visibleSuffix) {
+            return MASK;
+        }
+        return MASK + value.substring(value.length() - visibleSuffix);
+    }
+
+    static String hash(String value) {
+        byte[] digest = HMAC.get().forSecret(secret).doFinal(value.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+    }
+
+    static void setSecret(String newSecret) {
+        if (newSecret == null || newSecret.isEmpty()) {
+            throw new IllegalArgumentException("the secret for hashing must not be empty");
+        }
+        secret = new SecretKeySpec(newSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    static void resetSecret() {
+        secret = randomSecret();
+    }
+
+    private static SecretKeySpec randomSecret() {
+        byte[] randomBytes = new byte[32];
+        new SecureRandom().nextBytes(randomBytes);
+        return new SecretKeySpec(randomBytes, ALGORITHM);
+    }
+
+    private static final class KeyedMac {
+        private final Mac mac;
+        private SecretKeySpec initializedWith;
+
+        private KeyedMac() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("every JVM must support " + ALGORITHM, e);
+            }
+        }
+
+        private Mac forSecret(SecretKeySpec currentSecret) {
+            if (initializedWith != currentSecret) {
+                try {
+                    mac.init(currentSecret);
+                } catch (InvalidKeyException e) {
+                    throw new IllegalStateException("cannot hash with the configured secret", e);
+                }
+                initializedWith = currentSecret;
+            }
+            return mac;
+        }
+    }
+}
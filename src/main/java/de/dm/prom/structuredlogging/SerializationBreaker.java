@@ -0,0 +1,148 @@
+package de.dm.prom.structuredlogging;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * guards serialization of MDC values per value type
+ * <p>
+ * a value whose serialization fails or exceeds the budget is replaced by a {@code json_error} placeholder. If it is of an
+ * application type, that type is also short-circuited to the placeholder for a cooldown period. This keeps lazily
+ * loaded entities and huge object graphs from slowing down every request that puts them into MDC. Types of the JDK,
+ * like strings, collections and {@code Optional}, are never short-circuited, because one bad value would replace
+ * unrelated values of the same type. A time budget can be set as well, but is disabled by default,
+ * because a single GC pause or a throttled CPU would otherwise disable a type for the whole JVM. The time budget does
+ * not apply to the first serialization of a type, because that includes creating its serializer. Each time a type is
+ * short-circuited, one message is logged, which also reports how many values were skipped since the previous one.
+ * <p>
+ * the state of a type is held in a {@link ClassValue}, so it does not keep the class loader of a redeployed
+ * application alive.
+ */
+@Slf4j
+final class SerializationBreaker {
+    static final String UNSERIALIZABLE = "{\"json_error\":\"Unserializable Object.\"}";
+    //needs to be an object, not a string, for Kibana. Otherwise, Kibana will throw away the log entry because the field has the wrong type.
+    static final String OVER_BUDGET = "{\"json_error\":\"Serialization skipped because it exceeded the budget.\"}";
+
+    private volatile ClassValue<TypeState> typeStates = newTypeStates();
+    private volatile long maxNanos; //0 if there is no time budget
+    private volatile int maxLength = 1_000_000;
+    private volatile long cooldownNanos = Duration.ofMinutes(1).toNanos();
+
+    String toJson(Object value, MdcJsonSerializer serializer) {
+        Class<?> type = value == null ? Void.class : value.getClass();
+        if (isJdkType(type)) {
+            return toJsonWithoutBreaker(value, serializer, type);
+        }
+        TypeState typeState = typeStates.get(type);
+        long startedAt = System.nanoTime();
+        OpenBreaker openBreaker = typeState.openBreaker.get();
+        if (openBreaker != null) {
+            if (startedAt - openBreaker.openUntil < 0) {
+                openBreaker.skipped.increment();
+                return openBreaker.placeholder;
+            }
+            typeState.openBreaker.compareAndSet(openBreaker, null); //half-open: try once more, the next trip will report what was skipped
+        }
+        String json;
+        try {
+            json = serializer.toJson(value);
+        } catch (Exception e) {
+            MdcSerializationFailureEvent.commit(value, e);
+            long skipped = trip(typeState, startedAt, UNSERIALIZABLE, openBreaker);
+            log.error("Object of type {} cannot be serialized, skipping this type for {} ms ({} values skipped before)",
+                    type.getName(), cooldownNanos / 1_000_000, skipped, e);
+            return UNSERIALIZABLE;
+        }
+        long nanos = System.nanoTime() - startedAt;
+        if (exceedsBudget(typeState, nanos, json)) {
+            long skipped = trip(typeState, startedAt, OVER_BUDGET, openBreaker);
+            log.warn("Serializing an object of type {} took {} ms for {} characters, which exceeds the budget. Skipping this type for {} ms ({} values skipped before)",
+                    type.getName(), nanos / 1_000_000, json.length(), cooldownNanos / 1_000_000, skipped);
+            return OVER_BUDGET;
+        }
+        return json;
+    }
+
+    // only replaces the value itself if it fails or is too long - the time budget is not checked, because the time is
+    // spent already and no later value is skipped
+    private String toJsonWithoutBreaker(Object value, MdcJsonSerializer serializer, Class<?> type) {
+        String json;
+        try {
+            json = serializer.toJson(value);
+        } catch (Exception e) {
+            MdcSerializationFailureEvent.commit(value, e);
+            log.error("Object of type {} cannot be serialized", type.getName(), e);
+            return UNSERIALIZABLE;
+        }
+        if (json.length() > maxLength) {
+            log.warn("Serializing an object of type {} produced {} characters, which exceeds the budget", type.getName(), json.length());
+            return OVER_BUDGET;
+        }
+        return json;
+    }
+
+    private boolean exceedsBudget(TypeState typeState, long nanos, String json) {
+        if (json.length() > maxLength) {
+            return true;
+        }
+        if (!typeState.warm) {
+            typeState.warm = true; //the first serialization of a type includes creating its serializer, so it is not timed
+            return false;
+        }
+        long currentMaxNanos = maxNanos;
+        return currentMaxNanos > 0 && nanos > currentMaxNanos;
+    }
+
+    // arrays belong to the module of their component type
+    private static boolean isJdkType(Class<?> type) {
+        String moduleName = type.getModule().getName();
+        return moduleName != null && (moduleName.startsWith("java.") || moduleName.startsWith("jdk."));
+    }
+
+    private long trip(TypeState typeState, long now, String placeholder, OpenBreaker previous) {
+        typeState.openBreaker.set(new OpenBreaker(now + cooldownNanos, placeholder));
+        return previous == null ? 0 : previous.skipped.sum();
+    }
+
+    void setBudget(Duration maxDuration, int maxLength) {
+        this.maxNanos = maxDuration.toNanos();
+        this.maxLength = maxLength;
+    }
+
+    void setCooldown(Duration cooldown) {
+        this.cooldownNanos = cooldown.toNanos();
+    }
+
+    void reset() {
+        typeStates = newTypeStates(); //a ClassValue cannot be cleared, so it is replaced
+    }
+
+    private static ClassValue<TypeState> newTypeStates() {
+        return new ClassValue<>() {
+            @Override
+            protected TypeState computeValue(Class<?> type) {
+                return new TypeState();
+            }
+        };
+    }
+
+    private static final class TypeState {
+        private final AtomicReference<OpenBreaker> openBreaker = new AtomicReference<>();
+        private volatile boolean warm;
+    }
+
+    private static final class OpenBreaker {
+        private final long openUntil;
+        private final String placeholder;
+        private final LongAdder skipped = new LongAdder();
+
+        private OpenBreaker(long openUntil, String placeholder) {
+            this.openUntil = openUntil;
+            this.placeholder = placeholder;
+        }
+    }
+}
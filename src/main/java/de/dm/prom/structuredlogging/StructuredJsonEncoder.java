@@ -0,0 +1,329 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+
+/**
+ * encoder that writes log events as JSON with a fixed field layout, as a leaner alternative to LogstashEncoder with
+ * {@link StructuredMdcJsonProvider}
+ * <p>
+ * each event is written as one line with timestamp (UTC, milliseconds), version, message, logger, thread, level,
+ * level value, the stack trace if there is one, and all MDC entries - structured MDC values are written as JSON. The
+ * field names default to those of LogstashEncoder and can be configured; setting a name to an empty string omits the
+ * field. Field names and levels are encoded to UTF-8 once, and each thread reuses its own output buffer. Plain MDC
+ * values can be masked or hashed like with {@link StructuredMdcJsonProvider}.
+ * <p>
+ * for everything beyond this layout, like custom providers or delta encoding, use LogstashEncoder with
+ * {@link StructuredMdcJsonProvider}.
+ */
+public class StructuredJsonEncoder extends EncoderBase<ILoggingEvent> {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final ThreadLocal<JsonByteBuffer> buffers = ThreadLocal.withInitial(() -> new JsonByteBuffer(INITIAL_BUFFER_SIZE));
+    private final ThrowableProxyConverter throwableConverter = new ThrowableProxyConverter();
+    private final MdcKeyRedaction keyRedaction = new MdcKeyRedaction();
+
+    private String timestampFieldName = "@timestamp";
+    private String versionFieldName = "@version";
+    private String messageFieldName = "message";
+    private String loggerFieldName = "logger_name";
+    private String threadFieldName = "thread_name";
+    private String levelFieldName = "level";
+    private String levelValueFieldName = "level_value";
+    private String stackTraceFieldName = "stack_trace";
+
+    private byte[] timestampPrefix;
+    private byte[] versionField;
+    private byte[] messagePrefix;
+    private byte[] loggerPrefix;
+    private byte[] threadPrefix;
+    private byte[] stackTracePrefix;
+    private LevelFields levelFields;
+
+    /**
+     * creates this encoder according to logback's contract
+     */
+    public StructuredJsonEncoder() {
+    }
+
+    @Override
+    public void start() {
+        timestampPrefix = prefix(timestampFieldName);
+        versionField = versionFieldName.isEmpty() ? null : utf8("," + quote(versionFieldName) + ":\"1\"");
+        messagePrefix = prefix(messageFieldName);
+        loggerPrefix = prefix(loggerFieldName);
+        threadPrefix = prefix(threadFieldName);
+        stackTracePrefix = prefix(stackTraceFieldName);
+        levelFields = new LevelFields(levelFieldName, levelValueFieldName);
+        throwableConverter.setContext(getContext());
+        throwableConverter.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        throwableConverter.stop();
+        super.stop();
+    }
+
+    @Override
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent event) {
+        JsonByteBuffer buffer = buffers.get();
+        buffer.reset();
+        buffer.write((byte) '{');
+        boolean first = true;
+        if (timestampPrefix != null) {
+            buffer.writeField(timestampPrefix, first);
+            buffer.write((byte) '"');
+            buffer.writeUtcTimestamp(event.getTimeStamp());
+            buffer.write((byte) '"');
+            first = false;
+        }
+        if (versionField != null) {
+            buffer.writeField(versionField, first);
+            first = false;
+        }
+        first = writeStringField(buffer, messagePrefix, event.getFormattedMessage(), first);
+        first = writeStringField(buffer, loggerPrefix, event.getLoggerName(), first);
+        first = writeStringField(buffer, threadPrefix, event.getThreadName(), first);
+        byte[] level = levelFields.forLevel(event.getLevel());
+        if (level != null) {
+            buffer.writeField(level, first);
+            first = false;
+        }
+        if (event.getThrowableProxy() != null) {
+            first = writeStringField(buffer, stackTracePrefix, throwableConverter.convert(event), first);
+        }
+        writeMdc(buffer, event.getMDCPropertyMap(), first);
+        buffer.write((byte) '}');
+        buffer.write(LINE_SEPARATOR);
+
+        byte[] encoded = buffer.toByteArray();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.remove(); //don't keep huge buffers around for each thread after an unusually large event
+        }
+        return encoded;
+    }
+
+    private static boolean writeStringField(JsonByteBuffer buffer, byte[] prefix, String value, boolean first) {
+        if (prefix == null || value == null) {
+            return first;
+        }
+        buffer.writeField(prefix, first);
+        buffer.writeString(value);
+        return false;
+    }
+
+    private void writeMdc(JsonByteBuffer buffer, Map<String, String> mdc, boolean first) {
+        if (mdc == null) {
+            return;
+        }
+        for (Map.Entry<String, String> field : mdc.entrySet()) {
+            String key = field.getKey();
+            String value = field.getValue();
+            if (key == null || value == null) {
+                continue;
+            }
+            if (value.startsWith(FLAT_JSON_PREFIX)) {
+                first = writeFlatFields(buffer, value, first);
+                continue;
+            }
+            if (!first) {
+                buffer.write((byte) ',');
+            }
+            first = false;
+            buffer.writeString(key);
+            buffer.write((byte) ':');
+            if (value.startsWith(JSON_PREFIX)) {
+                buffer.writeRaw(value, JSON_PREFIX.length());
+            } else {
+                buffer.writeString(keyRedaction.redacted(key, value));
+            }
+        }
+    }
+
+    private static boolean writeFlatFields(JsonByteBuffer buffer, String value, boolean first) {
+        try (JsonParser parser = MdcFlattening.parseFlatFields(value)) {
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                if (!first) {
+                    buffer.write((byte) ',');
+                }
+                first = false;
+                buffer.writeString(parser.currentName());
+                buffer.write((byte) ':');
+                if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                    buffer.writeString(parser.getString());
+                } else {
+                    buffer.writeRaw(parser.getText(), 0); //numbers, booleans and null
+                }
+            }
+        }
+        return first;
+    }
+
+    private static byte[] prefix(String fieldName) {
+        return fieldName.isEmpty() ? null : utf8("," + quote(fieldName) + ":");
+    }
+
+    private static String quote(String fieldName) {
+        return '"' + fieldName.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * mask the plain MDC value of a key, see {@link StructuredMdcJsonProvider#addMaskedKey(String)}
+     *
+     * @param maskedKey MDC key, optionally followed by the number of characters that stay visible, like {@code iban=4}
+     *
+     * @throws IllegalArgumentException if the number of visible characters is not a number
+     */
+    public void addMaskedKey(String maskedKey) {
+        keyRedaction.addMaskedKey(maskedKey);
+    }
+
+    /**
+     * hash the plain MDC value of a key, see {@link StructuredMdcJsonProvider#addHashedKey(String)}
+     *
+     * @param hashedKey MDC key
+     */
+    public void addHashedKey(String hashedKey) {
+        keyRedaction.addHashedKey(hashedKey);
+    }
+
+    /**
+     * set the secret for hashing values, see {@link MdcContext#setHashSecret(String)}
+     *
+     * @param hashSecret secret, like {@code ${LOG_HASH_SECRET}} to take it from the environment
+     */
+    public void setHashSecret(String hashSecret) {
+        MdcContext.setHashSecret(hashSecret);
+    }
+
+    /**
+     * set the name of the timestamp field - defaults to {@code @timestamp}
+     *
+     * @param timestampFieldName field name, or an empty string to omit the field
+     */
+    public void setTimestampFieldName(String timestampFieldName) {
+        this.timestampFieldName = timestampFieldName;
+    }
+
+    /**
+     * set the name of the version field - defaults to {@code @version}
+     *
+     * @param versionFieldName field name, or an empty string to omit the field
+     */
+    public void setVersionFieldName(String versionFieldName) {
+        this.versionFieldName = versionFieldName;
+    }
+
+    /**
+     * set the name of the message field - defaults to {@code message}
+     *
+     * @param messageFieldName field name, or an empty string to omit the field
+     */
+    public void setMessageFieldName(String messageFieldName) {
+        this.messageFieldName = messageFieldName;
+    }
+
+    /**
+     * set the name of the logger field - defaults to {@code logger_name}
+     *
+     * @param loggerFieldName field name, or an empty string to omit the field
+     */
+    public void setLoggerFieldName(String loggerFieldName) {
+        this.loggerFieldName = loggerFieldName;
+    }
+
+    /**
+     * set the name of the thread field - defaults to {@code thread_name}
+     *
+     * @param threadFieldName field name, or an empty string to omit the field
+     */
+    public void setThreadFieldName(String threadFieldName) {
+        this.threadFieldName = threadFieldName;
+    }
+
+    /**
+     * set the name of the level field - defaults to {@code level}
+     *
+     * @param levelFieldName field name, or an empty string to omit the field
+     */
+    public void setLevelFieldName(String levelFieldName) {
+        this.levelFieldName = levelFieldName;
+    }
+
+    /**
+     * set the name of the level value field - defaults to {@code level_value}
+     *
+     * @param levelValueFieldName field name, or an empty string to omit the field
+     */
+    public void setLevelValueFieldName(String levelValueFieldName) {
+        this.levelValueFieldName = levelValueFieldName;
+    }
+
+    /**
+     * set the name of the stack trace field - defaults to {@code stack_trace}
+     *
+     * @param stackTraceFieldName field name, or an empty string to omit the field
+     */
+    public void setStackTraceFieldName(String stackTraceFieldName) {
+        this.stackTraceFieldName = stackTraceFieldName;
+    }
+
+    /**
+     * pre-encoded level and level value fields for each level
+     */
+    private static final class LevelFields {
+        private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+        private final byte[][] fields = new byte[LEVELS.length][];
+
+        private LevelFields(String levelFieldName, String levelValueFieldName) {
+            for (int i = 0; i < LEVELS.length; i++) {
+                StringBuilder field = new StringBuilder();
+                if (!levelFieldName.isEmpty()) {
+                    field.append(',').append(quote(levelFieldName)).append(":\"").append(LEVELS[i].levelStr).append('"');
+                }
+                if (!levelValueFieldName.isEmpty()) {
+                    field.append(',').append(quote(levelValueFieldName)).append(':').append(LEVELS[i].levelInt);
+                }
+                fields[i] = field.length() == 0 ? null : utf8(field.toString());
+            }
+        }
+
+        private byte[] forLevel(Level level) {
+            for (int i = 0; i < LEVELS.length; i++) {
+                if (LEVELS[i] == level) {
+                    return fields[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * finds events in a log written with {@link StructuredMdcJsonProvider}, for when a log needs to be searched on the
+ * machine that wrote it
+ * <p>
+ * conditions compare the value at a field path with a literal, like {@code Order.customerId=123} or
+ * {@code level>=WARN}. The first segment of a path is a top-level field of the event, like an MDC key, the remaining
+ * segments are fields in its JSON. Paths also match the top-level fields of values flattened with {@link MdcFlattening},
+ * like {@code "Order.customerId":123}. Supported operators are {@code = != > >= < <=}. {@code =} and {@code !=} compare
+ * text, the others compare log levels if the literal is a log level, numbers if it is a number and text otherwise.
+ * An event matches if it matches all conditions - events that do not have a value for a path do not match.
+ * <p>
+ * the log file is memory mapped and scanned in chunks by several threads. If a condition requires a literal, only
+ * lines that contain it are parsed. Parsing skips all fields that are not on a path and stops as soon as the result
+ * is known. Matching events are written in the order of the file.
+ * <p>
+ * usage: {@code java -cp ... de.dm.prom.structuredlogging.StructuredLogQuery <log file> [condition]...} - writes to
+ * standard output
+ */
+public final class StructuredLogQuery {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Pattern CONDITION = Pattern.compile("([^=!<>]+)(>=|<=|!=|=|>|<)(.*)");
+    private static final List<String> LEVELS = List.of("TRACE", "DEBUG", "INFO", "WARN", "ERROR");
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final byte NEWLINE = '\n';
+    private static final int MATCH = 1;
+    private static final int MISMATCH = -1;
+    private static final int UNDECIDED = 0;
+
+    private final List<Condition> conditions;
+    private final PathNode root = new PathNode();
+    private final byte[] requiredLiteral; //null if no literal is required
+    private final int threads;
+    private final int chunkSize;
+
+    private StructuredLogQuery(List<Condition> conditions, int threads, int chunkSize) {
+        this.conditions = conditions;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        String longestLiteral = null;
+        for (Condition condition : conditions) {
+            PathNode node = root;
+            for (String fieldName : condition.fieldNames) {
+                node = node.children.computeIfAbsent(fieldName, name -> new PathNode());
+            }
+            node.conditions.add(condition);
+            if (condition.fieldNames.length > 1) { //values written with MdcFlattening have the whole path as field name
+                root.children.computeIfAbsent(String.join(".", condition.fieldNames), name -> new PathNode()).conditions.add(condition);
+            }
+            if (condition.isLiteralRequired() && (longestLiteral == null || condition.expected.length() > longestLiteral.length())) {
+                longestLiteral = condition.expected;
+            }
+        }
+        requiredLiteral = longestLiteral == null ? null : longestLiteral.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * search a log file
+     *
+     * @param args path to the log file, followed by the conditions
+     *
+     * @throws IOException if the log cannot be read
+     * @throws IllegalArgumentException if there is no log file or a condition is invalid
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("usage: StructuredLogQuery <log file> [condition]...");
+        }
+        StructuredLogQuery query = of(Arrays.copyOfRange(args, 1, args.length));
+        query.scan(Path.of(args[0]), new BufferedOutputStream(System.out, 64 * 1024));
+    }
+
+    /**
+     * create a query that uses all available processors
+     *
+     * @param conditions conditions like {@code Order.customerId=123} - no conditions match all events
+     *
+     * @return the query
+     *
+     * @throws IllegalArgumentException if a condition is invalid
+     */
+    public static StructuredLogQuery of(String... conditions) {
+        List<Condition> parsed = new ArrayList<>();
+        for (String condition : conditions) {
+            parsed.add(Condition.parse(condition));
+        }
+        return new StructuredLogQuery(parsed, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param newThreads number of threads that scan the log
+     *
+     * @return a copy of this query that uses the given number of threads
+     *
+     * @throws IllegalArgumentException if the number of threads is not positive
+     */
+    public StructuredLogQuery withThreads(int newThreads) {
+        if (newThreads < 1) {
+            throw new IllegalArgumentException("threads must be positive, but was " + newThreads);
+        }
+        return new StructuredLogQuery(conditions, newThreads, chunkSize);
+    }
+
+    StructuredLogQuery withChunkSize(int newChunkSize) {
+        return new StructuredLogQuery(conditions, threads, newChunkSize);
+    }
+
+    /**
+     * write all matching events of a log file
+     *
+     * @param file log file with one event per line
+     * @param out stream for the matching events - flushed, but not closed
+     *
+     * @return number of matching events
+     *
+     * @throws IOException if the log cannot be read or the events cannot be written
+     * @throws InterruptedIOException if the thread is interrupted while waiting for a chunk to be scanned
+     */
+    public long scan(Path file, OutputStream out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Deque<Future<ChunkResult>> pending = new ArrayDeque<>();
+            long matches = 0;
+            for (long start = 0; start < size; start += chunkSize) {
+                if (pending.size() >= 2 * threads) { //limits the memory used for matches that wait for earlier chunks
+                    matches += pending.poll().get().writeTo(out);
+                }
+                long chunkStart = start;
+                pending.add(executor.submit(() -> scanChunk(channel, chunkStart, Math.min(size, chunkStart + chunkSize), size)));
+            }
+            while (!pending.isEmpty()) {
+                matches += pending.poll().get().writeTo(out);
+            }
+            out.flush();
+            return matches;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("scanning " + file + " was interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // scans the lines that start in a chunk - the byte before the chunk is mapped too, to see if a line starts at
+    // the beginning of the chunk, and the rest of the file is mapped to read the last line to its end
+    private ChunkResult scanChunk(FileChannel channel, long start, long end, long size) throws IOException {
+        long mapStart = Math.max(0, start - 1);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(size - mapStart, Integer.MAX_VALUE));
+        ChunkResult result = new ChunkResult();
+        int chunkLimit = (int) (end - mapStart);
+        int lineStart = start == 0 ? 0 : indexOf(buffer, NEWLINE, 0, chunkLimit) + 1;
+        if (lineStart <= 0 && start > 0 || lineStart >= chunkLimit) {
+            return result; //no line starts in this chunk
+        }
+        int regionEnd = lineEnd(buffer, chunkLimit - 1);
+        while (lineStart < regionEnd) {
+            if (requiredLiteral != null) {
+                int found = indexOf(buffer, requiredLiteral, lineStart, regionEnd);
+                if (found < 0) {
+                    break;
+                }
+                lineStart = lastIndexOf(buffer, NEWLINE, found, lineStart) + 1;
+            }
+            int lineEnd = lineEnd(buffer, lineStart);
+            result.testLine(buffer, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return result;
+    }
+
+    /**
+     * @param line buffer that contains the line
+     * @param offset start of the line
+     * @param length length of the line
+     *
+     * @return whether the event in the line matches all conditions
+     */
+    boolean matches(byte[] line, int offset, int length) {
+        if (conditions.isEmpty()) {
+            return true;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(ObjectReadContext.empty(), line, offset, length)) {
+            return parser.nextToken() == JsonToken.START_OBJECT && matchObject(parser, root, new int[1]) == MATCH;
+        } catch (JacksonException e) {
+            return false;
+        }
+    }
+
+    private int matchObject(JsonParser parser, PathNode node, int[] satisfied) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            PathNode child = node.children.get(parser.currentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+                continue;
+            }
+            int result = matchValue(parser, token, child, satisfied);
+            if (result != UNDECIDED) {
+                return result;
+            }
+        }
+        return UNDECIDED;
+    }
+
+    private int matchValue(JsonParser parser, JsonToken token, PathNode node, int[] satisfied) {
+        if (token == JsonToken.START_OBJECT && !node.children.isEmpty()) {
+            return matchObject(parser, node, satisfied);
+        }
+        String value = token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getString() : null;
+        parser.skipChildren();
+        for (Condition condition : node.conditions) {
+            if (value == null || !condition.test(value)) {
+                return MISMATCH;
+            }
+            satisfied[0]++;
+        }
+        return satisfied[0] == conditions.size() ? MATCH : UNDECIDED;
+    }
+
+    private static int lineEnd(MappedByteBuffer buffer, int from) {
+        int lineEnd = indexOf(buffer, NEWLINE, from, buffer.limit());
+        return lineEnd < 0 ? buffer.limit() : lineEnd;
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, byte[] literal, int from, int to) {
+        int last = to - literal.length;
+        for (int i = from; i <= last; i++) {
+            if (buffer.get(i) == literal[0] && regionEquals(buffer, i, literal)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(MappedByteBuffer buffer, int offset, byte[] literal) {
+        for (int i = 1; i < literal.length; i++) {
+            if (buffer.get(offset + i) != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastIndexOf(MappedByteBuffer buffer, byte value, int from, int floor) {
+        for (int i = from; i >= floor; i--) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return floor - 1;
+    }
+
+    private static final class PathNode {
+        private final Map<String, PathNode> children = new HashMap<>();
+        private final List<Condition> conditions = new ArrayList<>();
+    }
+
+    private enum Operator {
+        EQUAL, NOT_EQUAL, GREATER, GREATER_OR_EQUAL, LESS, LESS_OR_EQUAL;
+
+        static Operator of(String symbol) {
+            return switch (symbol) {
+                case "=" -> EQUAL;
+                case "!=" -> NOT_EQUAL;
+                case ">" -> GREATER;
+                case ">=" -> GREATER_OR_EQUAL;
+                case "<" -> LESS;
+                default -> LESS_OR_EQUAL;
+            };
+        }
+
+        boolean test(int comparison) {
+            return switch (this) {
+                case EQUAL -> comparison == 0;
+                case NOT_EQUAL -> comparison != 0;
+                case GREATER -> comparison > 0;
+                case GREATER_OR_EQUAL -> comparison >= 0;
+                case LESS -> comparison < 0;
+                case LESS_OR_EQUAL -> comparison <= 0;
+            };
+        }
+    }
+
+    private static final class Condition {
+        private final String[] fieldNames;
+        private final Operator operator;
+        private final String expected;
+        private final int expectedLevel; //-1 if not a log level
+        private final BigDecimal expectedNumber; //null if not a number
+
+        private Condition(String[] fieldNames, Operator operator, String expected) {
+            this.fieldNames = fieldNames;
+            this.operator = operator;
+            this.expected = expected;
+            this.expectedLevel = LEVELS.indexOf(expected.toUpperCase(Locale.ROOT));
+            this.expectedNumber = parseNumber(expected);
+        }
+
+        static Condition parse(String condition) {
+            Matcher matcher = CONDITION.matcher(condition.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("condition must look like path=value, path!=value, path>value, path>=value, path<value or path<=value: " + condition);
+            }
+            String[] fieldNames = matcher.group(1).trim().split("\\.");
+            if (Arrays.asList(fieldNames).contains("")) {
+                throw new IllegalArgumentException("field path must not contain empty segments: " + condition);
+            }
+            return new Condition(fieldNames, Operator.of(matcher.group(2)), matcher.group(3).trim());
+        }
+
+        /**
+         * @return whether every matching line contains the expected value literally - only if JSON does not need to
+         *     escape it
+         */
+        boolean isLiteralRequired() {
+            return operator == Operator.EQUAL && !expected.isEmpty() && expected.chars().allMatch(c -> c >= ' ' && c <= '~' && c != '"' && c != '\\');
+        }
+
+        boolean test(String actual) {
+            if (operator == Operator.EQUAL || operator == Operator.NOT_EQUAL) {
+                return operator.test(expected.equals(actual) ? 0 : 1);
+            }
+            if (expectedLevel >= 0) {
+                int actualLevel = LEVELS.indexOf(actual.toUpperCase(Locale.ROOT));
+                return actualLevel >= 0 && operator.test(Integer.compare(actualLevel, expectedLevel));
+            }
+            if (expectedNumber != null) {
+                BigDecimal actualNumber = parseNumber(actual);
+                return actualNumber != null && operator.test(actualNumber.compareTo(expectedNumber));
+            }
+            return operator.test(actual.compareTo(expected));
+        }
+
+        private static BigDecimal parseNumber(String value) {
+            try {
+                return new BigDecimal(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final class ChunkResult {
+        private final ByteArrayOutputStream matchingLines = new ByteArrayOutputStream();
+        private byte[] line = new byte[1024];
+        private long matches;
+
+        void testLine(MappedByteBuffer buffer, int start, int end) {
+            int length = end > start && buffer.get(end - 1) == '\r' ? end - start - 1 : end - start;
+            if (line.length < length) {
+                line = new byte[Math.max(length, line.length * 2)];
+            }
+            buffer.get(start, line, 0, length);
+            if (matches(line, 0, length)) {
+                matchingLines.write(line, 0, length);
+                matchingLines.write(NEWLINE);
+                matches++;
+            }
+        }
+
+        long writeTo(OutputStream out) throws IOException {
+            matchingLines.writeTo(out);
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.dm.prom.structuredlogging;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static de.dm.prom.structuredlogging.MdcDeltaEncoder.DELTA_FIELD_NAME;
+
+/**
+ * expands a log written with {@code deltaEncoding} back to events that carry their full MDC
+ * <p>
+ * reads one JSON event per line and writes each event with the MDC of its scope as top-level fields, the way
+ * {@link StructuredMdcJsonProvider} writes it without delta encoding. Lines that are not delta encoded are written
+ * unchanged. If the log does not contain the snapshot of a scope, for example because it was rotated, the events of
+ * that scope are marked with {@code "mdc_incomplete":true} until its next snapshot.
+ * <p>
+ * usage: {@code java -cp ... de.dm.prom.structuredlogging.StructuredMdcDeltaExpander [input file]} - reads standard
+ * input if no file is given and writes to standard output
+ */
+public final class StructuredMdcDeltaExpander {
+    private static final int MAX_TRACKED_SCOPES = 100_000;
+
+    private final JsonMapper jsonMapper = JsonMapper.builder()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+            .build();
+    private final Map<String, ScopeState> scopes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScopeState> eldest) {
+            return size() > MAX_TRACKED_SCOPES;
+        }
+    };
+
+    private StructuredMdcDeltaExpander() {
+    }
+
+    /**
+     * expand a delta encoded log
+     *
+     * @param args optional path to the log file
+     *
+     * @throws IOException if the log cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        try (Reader in = args.length > 0 ?
+                Files.newBufferedReader(Path.of(args[0]), StandardCharsets.UTF_8) :
+                new InputStreamReader(System.in, StandardCharsets.UTF_8);
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            expand(in, out);
+        }
+    }
+
+    /**
+     * expand a delta encoded log
+     *
+     * @param in delta encoded log with one event per line
+     * @param out writer for the expanded log
+     *
+     * @throws IOException if the log cannot be read or written
+     */
+    public static void expand(Reader in, Writer out) throws IOException {
+        StructuredMdcDeltaExpander expander = new StructuredMdcDeltaExpander();
+        BufferedReader lines = new BufferedReader(in);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            out.write(expander.expandLine(line));
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+    }
+
+    private String expandLine(String line) {
+        if (!line.contains(DELTA_FIELD_NAME)) {
+            return line;
+        }
+        JsonNode event;
+        try {
+            event = jsonMapper.readTree(line);
+        } catch (JacksonException e) {
+            return line; //like a torn last line or a plain text line that mentions the field
+        }
+        if (!(event instanceof ObjectNode eventObject) || !(event.get(DELTA_FIELD_NAME) instanceof ObjectNode delta)) {
+            return line;
+        }
+        eventObject.remove(DELTA_FIELD_NAME);
+        ScopeState scope = applyDelta(delta);
+        scope.mdc.forEach(eventObject::set);
+        if (scope.incomplete) {
+            eventObject.put("mdc_incomplete", true);
+        }
+        return jsonMapper.writeValueAsString(eventObject);
+    }
+
+    private ScopeState applyDelta(ObjectNode delta) {
+        String scopeId = delta.path("scope").asString();
+        boolean snapshot = delta.path("snapshot").asBoolean(false);
+        ScopeState scope = scopes.get(scopeId);
+        if (scope == null || snapshot) {
+            scope = new ScopeState(!snapshot);
+            scopes.put(scopeId, scope);
+        }
+        Map<String, JsonNode> mdc = scope.mdc;
+        if (delta.get("set") instanceof ObjectNode set) {
+            set.properties().forEach(field -> mdc.put(field.getKey(), field.getValue()));
+        }
+        delta.path("removed").values().forEach(key -> mdc.remove(key.asString()));
+        return scope;
+    }
+
+    private static final class ScopeState {
+        private final Map<String, JsonNode> mdc = new LinkedHashMap<>();
+        private final boolean incomplete;
+
+        private ScopeState(boolean incomplete) {
+            this.incomplete = incomplete;
+        }
+    }
+}
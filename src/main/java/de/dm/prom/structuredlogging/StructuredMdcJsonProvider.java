@@ -1,21 +1,52 @@
 package de.dm.prom.structuredlogging;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import net.logstash.logback.composite.JsonWritingUtils;
 import net.logstash.logback.composite.loggingevent.MdcJsonProvider;
 import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * extension of MdcJsonProvider to log Json content from MdcContext as actual Json and not as a string that contains json
  * <p>
  * to be used with logstash to enable structured logging
+ * <p>
+ * MDC keys can be restricted to events from a minimum level on, so that heavy structured fields are only written for
+ * WARN or ERROR events. With {@code maxJsonLength}, the largest structured fields are dropped first if all of them
+ * together would be longer in UTF-8 bytes - their keys are written to {@code json_dropped} instead.
+ * <p>
+ * with {@code deltaEncoding}, each event only carries the MDC keys that changed since the previous event of the same
+ * thread - see {@link MdcDeltaEncoder}. {@code fieldName} and {@code maxJsonLength} do not apply then.
+ * <p>
+ * plain MDC values of selected keys can be masked or hashed the same way as {@link Masked} and {@link Hashed}
+ * properties of structured values.
+ * <p>
+ * if {@link MdcSampling} is enabled, events of requests with a value for the sampling key have a field that records
+ * whether the request is sampled, so that it is clear why heavy values are missing.
+ * <p>
+ * values that were flattened by {@link MdcFlattening} are written as top level fields like {@code Order.customer.id},
+ * unless {@code deltaEncoding} is used.
  */
 public class StructuredMdcJsonProvider extends MdcJsonProvider {
     static final String JSON_PREFIX = "MDC_JSON_VALUE:";
+    static final String FLAT_JSON_PREFIX = "MDC_FLAT_JSON_VALUE:";
+    static final String DROPPED_FIELD_NAME = "json_dropped";
+
+    private final Map<String, Level> minimumLevels = new HashMap<>();
+    private final MdcKeyRedaction keyRedaction = new MdcKeyRedaction();
+    private int maxJsonLength;
+    private boolean deltaEncoding;
+    private int snapshotInterval = 100;
+    private MdcDeltaEncoder deltaEncoder;
+    private String samplingFieldName = "mdc_sampled";
 
     /**
      * creates this provider according to parent's contract
@@ -33,51 +64,272 @@ public class StructuredMdcJsonProvider extends MdcJsonProvider {
         return JSON_PREFIX;
     }
 
+    /**
+     * get the prefix for structured MDC entries that were flattened by {@link MdcFlattening}
+     *
+     * @return prefix used to mark flat json contents in MDC
+     */
+    public static String getFlatJsonPrefix() {
+        return FLAT_JSON_PREFIX;
+    }
+
+    /**
+     * only write an MDC key for events from a minimum level on
+     *
+     * @param keyMinimumLevel MDC key and minimum level, like {@code Order=WARN}
+     *
+     * @throws IllegalArgumentException if the parameter is not in the form key=level or the level is unknown
+     */
+    public void addMinimumLevel(String keyMinimumLevel) {
+        String[] split = keyMinimumLevel.split("=");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("minimumLevel (" + keyMinimumLevel + ") must be in the form key=level");
+        }
+        Level minimumLevel = Level.toLevel(split[1].trim(), null);
+        if (minimumLevel == null) {
+            throw new IllegalArgumentException("minimumLevel (" + keyMinimumLevel + ") has an unknown level");
+        }
+        minimumLevels.put(split[0].trim(), minimumLevel);
+    }
+
+    /**
+     * mask the plain MDC value of a key, like {@link Masked} does for properties of structured values
+     *
+     * @param maskedKey MDC key, optionally followed by the number of characters that stay visible, like {@code iban=4}
+     *
+     * @throws IllegalArgumentException if the number of visible characters is not a number
+     */
+    public void addMaskedKey(String maskedKey) {
+        keyRedaction.addMaskedKey(maskedKey);
+    }
+
+    /**
+     * hash the plain MDC value of a key, like {@link Hashed} does for properties of structured values
+     *
+     * @param hashedKey MDC key
+     */
+    public void addHashedKey(String hashedKey) {
+        keyRedaction.addHashedKey(hashedKey);
+    }
+
+    /**
+     * set the secret for hashing values - it applies to {@link Hashed} properties of structured values, too. Without a
+     * secret, hashes only match within the same JVM, see {@link MdcContext#setHashSecret(String)}.
+     *
+     * @param hashSecret secret, like {@code ${LOG_HASH_SECRET}} to take it from the environment
+     */
+    public void setHashSecret(String hashSecret) {
+        MdcContext.setHashSecret(hashSecret);
+    }
+
+    /**
+     * set the maximum total length of structured MDC fields per event in UTF-8 bytes - defaults to 0, which means no
+     * limit
+     *
+     * @param maxJsonLength maximum total length of structured MDC fields in bytes
+     */
+    public void setMaxJsonLength(int maxJsonLength) {
+        this.maxJsonLength = maxJsonLength;
+    }
+
+    /**
+     * only write the MDC keys that changed since the previous event of the same thread - defaults to false
+     *
+     * @param deltaEncoding whether to write deltas
+     */
+    public void setDeltaEncoding(boolean deltaEncoding) {
+        this.deltaEncoding = deltaEncoding;
+    }
+
+    /**
+     * set after how many events of a scope a full snapshot of MDC is written in delta encoding - defaults to 100
+     *
+     * @param snapshotInterval number of events between snapshots
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * set the name of the field that records whether the event's request is sampled - defaults to {@code mdc_sampled}
+     *
+     * @param samplingFieldName name of the field
+     */
+    public void setSamplingFieldName(String samplingFieldName) {
+        this.samplingFieldName = samplingFieldName;
+    }
+
+    @Override
+    public void start() {
+        deltaEncoder = deltaEncoding ? new MdcDeltaEncoder(Math.max(1, snapshotInterval)) : null;
+        super.start();
+    }
+
     @Override
     public void writeTo(JsonGenerator generator, ILoggingEvent event) {
+        StructuredMdcWriteEvent writeEvent = new StructuredMdcWriteEvent();
+        writeEvent.begin();
         Map<String, String> mdcProperties = event.getMDCPropertyMap();
-        if (mdcProperties != null && !mdcProperties.isEmpty()) {
+        if (deltaEncoder != null) {
+            deltaEncoder.writeDelta(generator, event.getThreadName(), includedFields(mdcProperties, event.getLevel()));
+        } else if (mdcProperties != null && !mdcProperties.isEmpty()) {
             if (getFieldName() != null) {
                 generator.writeObjectPropertyStart(getFieldName());
             }
-            if (!getIncludeMdcKeyNames().isEmpty()) {
-                mdcProperties = new HashMap<>(mdcProperties);
-                mdcProperties.keySet().retainAll(getIncludeMdcKeyNames());
-            }
-            if (!getExcludeMdcKeyNames().isEmpty()) {
-                mdcProperties = new HashMap<>(mdcProperties);
-                mdcProperties.keySet().removeAll(getExcludeMdcKeyNames());
+            //MDC is iterated directly instead of being copied and filtered first
+            Level level = event.getLevel();
+            writeNormalFields(generator, mdcProperties, level);
+            if (maxJsonLength > 0) {
+                writeJsonFieldsWithinLimit(generator, mdcProperties, level);
+            } else {
+                writeJsonFields(generator, mdcProperties, level);
             }
-            //so far, this is the inherited writeTo()
-            writeNormalFields(generator, mdcProperties);
-            writeJsonFields(generator, mdcProperties);
-            //do the rest of the inherited writeTo()
             if (getFieldName() != null) {
                 generator.writeEndObject();
             }
         }
+        Boolean sampled = MdcSampling.decisionFor(mdcProperties);
+        if (sampled != null) {
+            generator.writeBooleanProperty(samplingFieldName, sampled);
+        }
+        if (writeEvent.shouldCommit()) {
+            writeEvent.mdcEntries = mdcProperties == null ? 0 : mdcProperties.size();
+            writeEvent.commit();
+        }
     }
 
-    private void writeNormalFields(JsonGenerator generator, Map<String, String> mdcProperties) {
-        Map<String, String> normalFields = mdcProperties.entrySet().stream()
-                .filter(entry -> !isFieldWithJsonObject(entry))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private Map<String, String> includedFields(Map<String, String> mdcProperties, Level level) {
+        if (mdcProperties == null || mdcProperties.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, String> included = new LinkedHashMap<>();
+        for (Map.Entry<String, String> field : mdcProperties.entrySet()) {
+            if (field.getKey() != null && field.getValue() != null && isIncluded(field.getKey(), level)) {
+                included.put(field.getKey(), isFieldWithJsonObject(field) ? field.getValue() : keyRedaction.redacted(field.getKey(), field.getValue()));
+            }
+        }
+        return included;
+    }
+
+    private void writeNormalFields(JsonGenerator generator, Map<String, String> mdcProperties, Level level) {
+        for (Map.Entry<String, String> field : mdcProperties.entrySet()) {
+            if (field.getKey() != null && field.getValue() != null && isIncluded(field.getKey(), level) && !isFieldWithJsonObject(field)) {
+                generator.writeStringProperty(field.getKey(), keyRedaction.redacted(field.getKey(), field.getValue()));
+            }
+        }
+    }
 
-        JsonWritingUtils.writeMapEntries(generator, normalFields);
+    private void writeJsonFields(JsonGenerator generator, Map<String, String> mdcProperties, Level level) {
+        for (Map.Entry<String, String> field : mdcProperties.entrySet()) {
+            if (isIncluded(field.getKey(), level) && isFieldWithJsonObject(field)) {
+                writeJsonField(generator, field);
+            }
+        }
     }
 
-    private void writeJsonFields(JsonGenerator generator, Map<String, String> mdcProperties) {
-        Map<String, String> jsonFields = mdcProperties.entrySet().stream()
-                .filter(StructuredMdcJsonProvider::isFieldWithJsonObject)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private void writeJsonFieldsWithinLimit(JsonGenerator generator, Map<String, String> mdcProperties, Level level) {
+        List<SizedJsonField> fields = new ArrayList<>();
+        long totalBytes = 0;
+        for (Map.Entry<String, String> field : mdcProperties.entrySet()) {
+            if (isIncluded(field.getKey(), level) && isFieldWithJsonObject(field)) {
+                SizedJsonField sizedField = new SizedJsonField(field);
+                fields.add(sizedField);
+                totalBytes += sizedField.bytes;
+            }
+        }
+        List<String> droppedKeys = new ArrayList<>();
+        if (totalBytes > maxJsonLength) {
+            List<SizedJsonField> largestFirst = new ArrayList<>(fields);
+            largestFirst.sort(Comparator.comparingInt((SizedJsonField field) -> field.bytes).reversed());
+            for (int i = 0; i < largestFirst.size() && totalBytes > maxJsonLength; i++) {
+                SizedJsonField field = largestFirst.get(i);
+                totalBytes -= field.bytes;
+                droppedKeys.add(field.field.getKey());
+            }
+        }
+        for (SizedJsonField field : fields) {
+            if (!droppedKeys.contains(field.field.getKey())) {
+                writeJsonField(generator, field.field);
+            }
+        }
+        if (!droppedKeys.isEmpty()) {
+            generator.writeName(DROPPED_FIELD_NAME);
+            generator.writeArray(droppedKeys.toArray(new String[0]), 0, droppedKeys.size());
+        }
+    }
 
-        for (Map.Entry<String, String> field : jsonFields.entrySet()) {
+    private static void writeJsonField(JsonGenerator generator, Map.Entry<String, String> field) {
+        String value = field.getValue();
+        if (value.startsWith(FLAT_JSON_PREFIX)) {
+            writeFlatFields(generator, value);
+        } else {
             generator.writeName(field.getKey());
-            generator.writeRawValue(field.getValue().replaceFirst(JSON_PREFIX, ""));
+            generator.writeRawValue(value.substring(JSON_PREFIX.length()));
         }
     }
 
+    private static void writeFlatFields(JsonGenerator generator, String value) {
+        try (JsonParser parser = MdcFlattening.parseFlatFields(value)) {
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                generator.writeName(parser.currentName());
+                parser.nextToken();
+                generator.copyCurrentEvent(parser);
+            }
+        }
+    }
+
+    private boolean isIncluded(String key, Level level) {
+        if (!minimumLevels.isEmpty()) {
+            Level minimumLevel = minimumLevels.get(key);
+            if (minimumLevel != null && !level.isGreaterOrEqual(minimumLevel)) {
+                return false;
+            }
+        }
+        return (getIncludeMdcKeyNames().isEmpty() || getIncludeMdcKeyNames().contains(key)) &&
+                !getExcludeMdcKeyNames().contains(key);
+    }
+
     private static boolean isFieldWithJsonObject(Map.Entry<String, String> field) {
-        return field.getValue() != null && field.getValue().startsWith(JSON_PREFIX);
+        return field.getValue() != null && structuredPrefixLength(field.getValue()) > 0;
+    }
+
+    /**
+     * @param mdcValue MDC value
+     *
+     * @return length of the prefix of a structured value, flattened or not - 0 for a plain value
+     */
+    static int structuredPrefixLength(String mdcValue) {
+        if (mdcValue.startsWith(JSON_PREFIX)) {
+            return JSON_PREFIX.length();
+        }
+        return mdcValue.startsWith(FLAT_JSON_PREFIX) ? FLAT_JSON_PREFIX.length() : 0;
+    }
+
+    private static final class SizedJsonField {
+        private final Map.Entry<String, String> field;
+        private final int bytes; //length of the JSON in UTF-8, without the prefix
+
+        private SizedJsonField(Map.Entry<String, String> field) {
+            this.field = field;
+            this.bytes = utf8Length(field.getValue(), structuredPrefixLength(field.getValue()));
+        }
+
+        private static int utf8Length(String value, int start) {
+            int bytes = 0;
+            for (int i = start; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    bytes += 4;
+                    i++; //the low surrogate is part of the same code point
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
     }
 }
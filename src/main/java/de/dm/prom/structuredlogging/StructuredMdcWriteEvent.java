@@ -0,0 +1,22 @@
+package de.dm.prom.structuredlogging;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for {@link StructuredMdcJsonProvider} writing the MDC of one logging event
+ */
+@Name("de.dm.prom.structuredlogging.StructuredMdcWrite")
+@Label("Structured MDC Write")
+@Description("StructuredMdcJsonProvider wrote the MDC entries of a logging event")
+@Category("Structured Logging")
+@Enabled(false)
+@StackTrace(false)
+final class StructuredMdcWriteEvent extends jdk.jfr.Event {
+    @Label("MDC Entries")
+    int mdcEntries;
+}
@@ -0,0 +1,101 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * turbo filter that lets events below the usual log level through while a scope is open, so that
+ * {@link TailBufferingAppender} can buffer them
+ * <p>
+ * events between {@code level} (inclusive) and {@code threshold} (exclusive) are accepted if the current thread has
+ * an open scope of the MDC key {@code scopeKey} - see {@link TailBufferingAppender}. Add {@code logger} names to only
+ * accept events of these loggers and their descendants, so that libraries do not fill the buffers with their DEBUG
+ * events. Everything else is left to the regular level checks. Configure the same {@code scopeKey} and
+ * {@code threshold} as for the appender, and only attach appenders to your loggers through a
+ * {@link TailBufferingAppender}, because all of them will receive the accepted events.
+ */
+public class TailBufferTurboFilter extends TurboFilter {
+    private final List<String> loggers = new ArrayList<>();
+    private String scopeKey;
+    private Level level = Level.DEBUG;
+    private Level threshold = Level.INFO;
+
+    /**
+     * creates this filter according to logback's contract
+     */
+    public TailBufferTurboFilter() {
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level eventLevel, String format, Object[] params, Throwable t) {
+        if (!isStarted() || eventLevel.isGreaterOrEqual(threshold) || !eventLevel.isGreaterOrEqual(level)) {
+            return FilterReply.NEUTRAL;
+        }
+        return isBuffered(logger.getName()) && MdcScopeListeners.currentScope(scopeKey) != 0 ? FilterReply.ACCEPT : FilterReply.NEUTRAL;
+    }
+
+    private boolean isBuffered(String loggerName) {
+        if (loggers.isEmpty()) {
+            return true;
+        }
+        for (String buffered : loggers) {
+            if (loggerName.startsWith(buffered) &&
+                    (loggerName.length() == buffered.length() || loggerName.charAt(buffered.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void start() {
+        if (scopeKey == null) {
+            addError("No scopeKey set for " + getName());
+            return;
+        }
+        super.start();
+    }
+
+    /**
+     * set the MDC key that identifies a scope, for example the key of a request's MdcContext
+     *
+     * @param scopeKey MDC key
+     */
+    public void setScopeKey(String scopeKey) {
+        this.scopeKey = scopeKey;
+    }
+
+    /**
+     * only let events of this logger and its descendants through - events of all loggers are let through if no logger
+     * is added
+     *
+     * @param logger logger name, like {@code com.example}
+     */
+    public void addLogger(String logger) {
+        loggers.add(logger.trim());
+    }
+
+    /**
+     * set the lowest level to let through in a scope - defaults to DEBUG
+     *
+     * @param level lowest level to let through
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.DEBUG);
+    }
+
+    /**
+     * set the level from which on events are not buffered - defaults to INFO
+     *
+     * @param threshold level from which on events are left to the regular level checks
+     */
+    public void setThreshold(String threshold) {
+        this.threshold = Level.toLevel(threshold, Level.INFO);
+    }
+}
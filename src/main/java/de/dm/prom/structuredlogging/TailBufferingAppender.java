@@ -0,0 +1,294 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * appender that holds back events below a threshold per scope and only passes them on to its attached appenders if
+ * an error happens in the same scope
+ * <p>
+ * a scope is the outermost {@link MdcContext} or {@link MdcSlot} of the MDC key {@code scopeKey}, typically the one
+ * of a request. Each scope has its own buffer, even if another scope has the same value, and keeps it while its value
+ * changes. Buffered events keep the MDC they were logged with. When the scope is closed, its buffer is dropped. Events
+ * of other threads that only received the scope's MDC, for example through {@link MdcTaskDecorator}, are not buffered.
+ * Events are assigned to scopes on the thread that logs them, so do not put this appender behind an asynchronous
+ * appender - attach asynchronous appenders to it instead. Use {@link TailBufferTurboFilter} to let the events to be
+ * buffered through in the first place.
+ * <p>
+ * memory is strictly capped: each scope buffers at most {@code maxEventsPerScope} events in a ring that overwrites
+ * the oldest events, and at most {@code maxScopes} scopes are buffered at the same time. Rings are recycled when their
+ * scope is closed.
+ */
+public class TailBufferingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private final Map<Long, EventRing> rings = new ConcurrentHashMap<>();
+    private final Queue<EventRing> recycledRings = new ConcurrentLinkedQueue<>();
+    private final AtomicLong evictedScopes = new AtomicLong();
+    private final BiConsumer<String, Long> scopeListener = this::scopeClosed;
+
+    private String scopeKey;
+    private Level threshold = Level.INFO;
+    private Level flushLevel = Level.ERROR;
+    private int maxEventsPerScope = 256;
+    private int maxScopes = 1024;
+
+    /**
+     * creates this appender according to logback's contract
+     */
+    public TailBufferingAppender() {
+    }
+
+    @Override
+    public void start() {
+        if (scopeKey == null) {
+            addError("No scopeKey set for appender named [" + name + "].");
+            return;
+        }
+        if (maxEventsPerScope < 1 || maxScopes < 1) {
+            addError("maxEventsPerScope and maxScopes must be positive for appender named [" + name + "].");
+            return;
+        }
+        MdcScopeListeners.add(scopeListener);
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        MdcScopeListeners.remove(scopeListener);
+        super.stop();
+        rings.clear();
+        recycledRings.clear();
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        long scope = event.getMDCPropertyMap().get(scopeKey) == null ? 0 : MdcScopeListeners.currentScope(scopeKey);
+        if (scope == 0) {
+            appenders.appendLoopOnAppenders(event);
+        } else if (event.getLevel().isGreaterOrEqual(flushLevel)) {
+            flush(scope);
+            appenders.appendLoopOnAppenders(event);
+        } else if (event.getLevel().isGreaterOrEqual(threshold)) {
+            appenders.appendLoopOnAppenders(event);
+        } else {
+            event.prepareForDeferredProcessing(); //freeze message and MDC, because the event may be appended much later
+            buffer(scope, event);
+        }
+    }
+
+    private void buffer(long scope, ILoggingEvent event) {
+        while (true) {
+            if (rings.size() >= maxScopes && !rings.containsKey(scope)) {
+                evictOneScope();
+            }
+            EventRing ring = rings.computeIfAbsent(scope, this::acquireRing);
+            synchronized (ring) {
+                if (ring.scope == scope) {
+                    ring.add(event);
+                    return;
+                }
+            }
+            //the ring was released by a concurrent scopeClosed(...) - try again with a new one
+        }
+    }
+
+    private void flush(long scope) {
+        EventRing ring = rings.get(scope);
+        if (ring == null) {
+            return;
+        }
+        ILoggingEvent[] bufferedEvents;
+        synchronized (ring) {
+            if (ring.scope != scope) {
+                return;
+            }
+            bufferedEvents = ring.drain();
+        }
+        for (ILoggingEvent bufferedEvent : bufferedEvents) {
+            appenders.appendLoopOnAppenders(bufferedEvent);
+        }
+    }
+
+    private EventRing acquireRing(long scope) {
+        EventRing ring = recycledRings.poll();
+        if (ring == null || ring.events.length != maxEventsPerScope) {
+            ring = new EventRing(maxEventsPerScope);
+        }
+        ring.scope = scope;
+        return ring;
+    }
+
+    private void evictOneScope() {
+        Iterator<Long> scopes = rings.keySet().iterator();
+        if (scopes.hasNext()) {
+            long evictedScope = scopes.next();
+            if (evictedScopes.getAndIncrement() == 0) {
+                addWarn("More than " + maxScopes + " scopes are buffered at the same time. Buffers of other scopes are dropped to make room.");
+            }
+            release(evictedScope);
+        }
+    }
+
+    private void scopeClosed(String key, long scope) {
+        if (key.equals(scopeKey)) {
+            release(scope);
+        }
+    }
+
+    private void release(long scope) {
+        EventRing ring = rings.remove(scope);
+        if (ring != null) {
+            synchronized (ring) {
+                ring.clear();
+            }
+            recycledRings.offer(ring);
+        }
+    }
+
+    /**
+     * get the number of scopes whose buffers were dropped because too many scopes were buffered at the same time
+     *
+     * @return number of evicted scopes
+     */
+    public long getEvictedScopes() {
+        return evictedScopes.get();
+    }
+
+    /**
+     * set the MDC key that identifies a scope, for example the key of a request's MdcContext
+     *
+     * @param scopeKey MDC key
+     */
+    public void setScopeKey(String scopeKey) {
+        this.scopeKey = scopeKey;
+    }
+
+    /**
+     * set the level from which on events are passed on immediately - defaults to INFO
+     *
+     * @param threshold lowest level that is not buffered
+     */
+    public void setThreshold(String threshold) {
+        this.threshold = Level.toLevel(threshold, Level.INFO);
+    }
+
+    /**
+     * set the level from which on the buffer of the event's scope is passed on - defaults to ERROR
+     *
+     * @param flushLevel lowest level that flushes the buffer
+     */
+    public void setFlushLevel(String flushLevel) {
+        this.flushLevel = Level.toLevel(flushLevel, Level.ERROR);
+    }
+
+    /**
+     * set the maximum number of events buffered per scope - defaults to 256
+     *
+     * @param maxEventsPerScope maximum number of events per scope, older events are overwritten
+     */
+    public void setMaxEventsPerScope(int maxEventsPerScope) {
+        this.maxEventsPerScope = maxEventsPerScope;
+    }
+
+    /**
+     * set the maximum number of scopes buffered at the same time - defaults to 1024
+     *
+     * @param maxScopes maximum number of scopes
+     */
+    public void setMaxScopes(int maxScopes) {
+        this.maxScopes = maxScopes;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        appenders.addAppender(newAppender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+
+    /**
+     * fixed-size ring of events that overwrites the oldest event when full - guarded by its own monitor
+     */
+    private static final class EventRing {
+        private final ILoggingEvent[] events;
+        private long scope; //0 while the ring is not used
+        private int start;
+        private int count;
+
+        EventRing(int capacity) {
+            events = new ILoggingEvent[capacity];
+        }
+
+        void add(ILoggingEvent event) {
+            events[(start + count) % events.length] = event;
+            if (count < events.length) {
+                count++;
+            } else {
+                start = (start + 1) % events.length;
+            }
+        }
+
+        ILoggingEvent[] drain() {
+            ILoggingEvent[] drained = new ILoggingEvent[count];
+            for (int i = 0; i < count; i++) {
+                drained[i] = events[(start + i) % events.length];
+            }
+            clearEvents();
+            return drained;
+        }
+
+        void clear() {
+            clearEvents();
+            scope = 0;
+        }
+
+        private void clearEvents() {
+            for (int i = 0; i < count; i++) {
+                events[(start + i) % events.length] = null;
+            }
+            start = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.Duration;
+import org.slf4j.Marker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * turbo filter that enables a lower level only for events whose structured MDC matches a rule, so that a single
+ * store or customer can be diagnosed without turning on DEBUG globally
+ * <p>
+ * rules look like {@code Store.id == 4711} or {@code Order.customerId in {1, 2, 3}} - an MDC key, optionally followed
+ * by a path into the JSON of a structured MDC value. Events from {@code level} on are accepted if any rule matches.
+ * Rules can be configured with {@code rule} and in a {@code rulesFile} with one rule per line. The file is checked for
+ * changes every {@code reloadInterval} on logback's scheduler, so rules can be changed without restarting the
+ * application and without blocking logging threads on file IO.
+ */
+public class TargetedDebugTurboFilter extends TurboFilter {
+    private static final MdcRule[] NO_RULES = new MdcRule[0];
+
+    private final List<String> configuredRules = new ArrayList<>();
+    private Level level = Level.DEBUG;
+    private Path rulesFile;
+    private Duration reloadInterval = Duration.buildBySeconds(10);
+    private volatile MdcRule[] rules = NO_RULES;
+    private long rulesFileModifiedAt; //only used by start() and then by the scheduled check, which never overlaps itself
+    private ScheduledFuture<?> rulesFileCheck;
+
+    /**
+     * creates this filter according to logback's contract
+     */
+    public TargetedDebugTurboFilter() {
+    }
+
+    @Override
+    public void start() {
+        try {
+            rules = MdcRule.compile(configuredRules);
+        } catch (IllegalArgumentException e) {
+            addError("Invalid rule for " + getName(), e);
+            return;
+        }
+        if (rulesFile != null) {
+            reloadRulesFile();
+            long reloadIntervalMillis = reloadInterval.getMilliseconds();
+            if (reloadIntervalMillis > 0) {
+                rulesFileCheck = getContext().getScheduledExecutorService().scheduleAtFixedRate(
+                        this::reloadRulesFile, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (rulesFileCheck != null) {
+            rulesFileCheck.cancel(false);
+            rulesFileCheck = null;
+        }
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level eventLevel, String format, Object[] params, Throwable t) {
+        if (!isStarted() || !eventLevel.isGreaterOrEqual(level) || eventLevel.isGreaterOrEqual(logger.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL; //events that are enabled anyway are left to other filters
+        }
+        for (MdcRule rule : rules) {
+            if (rule.matchesMdc()) {
+                return FilterReply.ACCEPT;
+            }
+        }
+        return FilterReply.NEUTRAL;
+    }
+
+    private void reloadRulesFile() {
+        try {
+            long modifiedAt = Files.getLastModifiedTime(rulesFile).toMillis();
+            if (modifiedAt == rulesFileModifiedAt) {
+                return;
+            }
+            List<String> allRules = new ArrayList<>(configuredRules);
+            allRules.addAll(Files.readAllLines(rulesFile, StandardCharsets.UTF_8));
+            rules = MdcRule.compile(allRules);
+            rulesFileModifiedAt = modifiedAt;
+            addInfo("Loaded rules from " + rulesFile + " for " + getName());
+        } catch (NoSuchFileException e) {
+            if (rulesFileModifiedAt != 0) {
+                rules = MdcRule.compile(configuredRules);
+                rulesFileModifiedAt = 0;
+                addInfo("Rules file " + rulesFile + " was removed for " + getName());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            addError("Could not load rules from " + rulesFile + " for " + getName() + ", keeping the previous rules", e);
+        }
+    }
+
+    /**
+     * add a rule like {@code Store.id == 4711} or {@code Order.customerId in {1, 2, 3}}
+     *
+     * @param rule rule to add
+     */
+    public void addRule(String rule) {
+        configuredRules.add(rule);
+    }
+
+    /**
+     * set a file with one rule per line that is reloaded when it changes - blank lines and lines starting with
+     * {@code #} are ignored
+     *
+     * @param rulesFile path to the rules file
+     */
+    public void setRulesFile(String rulesFile) {
+        this.rulesFile = Path.of(rulesFile);
+    }
+
+    /**
+     * set the interval for checking the rules file for changes - defaults to 10 seconds, 0 only reads the file on start
+     *
+     * @param reloadInterval interval between checks
+     */
+    public void setReloadInterval(Duration reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * set the lowest level to enable for matching events - defaults to DEBUG
+     *
+     * @param level lowest level to enable
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.DEBUG);
+    }
+}
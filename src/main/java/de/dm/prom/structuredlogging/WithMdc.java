@@ -0,0 +1,35 @@
+package de.dm.prom.structuredlogging;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * puts a method parameter into MDC while the method runs, like wrapping the method body in
+ * {@link MdcContext#mdc(String, Object, MdcRunnable)}
+ * <p>
+ * the MDC key is {@link #value()} if set, otherwise the key of {@link #keySupplier()} if set, otherwise the simple name
+ * of the parameter's type. This only works for calls through a proxy - see {@link WithMdcAdvisor} for Spring and
+ * {@link MdcProxy} for plain Java.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface WithMdc {
+    /**
+     * MDC key to use
+     *
+     * @return MDC key, empty to use the key supplier or the simple name of the parameter's type
+     */
+    String value() default "";
+
+    /**
+     * {@link MdcKeySupplier} implementation that supplies the MDC key
+     *
+     * @return key supplier, {@link MdcKeySupplier} itself if none is set
+     */
+    @SuppressWarnings("rawtypes") //annotation attributes cannot be generic
+    Class<? extends MdcKeySupplier> keySupplier() default MdcKeySupplier.class;
+}
@@ -0,0 +1,27 @@
+package de.dm.prom.structuredlogging;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+
+import java.lang.reflect.Method;
+
+/**
+ * Spring AOP advisor that applies {@link WithMdcInterceptor} to all methods with {@link WithMdc} parameters
+ * <p>
+ * the annotations are read from the method of the target class, also for JDK interface proxies
+ * <p>
+ * see the documentation on how to register this
+ */
+public class WithMdcAdvisor extends StaticMethodMatcherPointcutAdvisor {
+    /**
+     * create an advisor with a new {@link WithMdcInterceptor}
+     */
+    public WithMdcAdvisor() {
+        super(new WithMdcInterceptor());
+    }
+
+    @Override
+    public boolean matches(Method method, Class<?> targetClass) {
+        return !MdcMethodScopes.forMethod(AopUtils.getMostSpecificMethod(method, targetClass)).isEmpty();
+    }
+}
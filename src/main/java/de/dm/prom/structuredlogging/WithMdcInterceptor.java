@@ -0,0 +1,32 @@
+package de.dm.prom.structuredlogging;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.MethodClassKey;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * method interceptor that puts the {@link WithMdc} parameters of the invoked method into MDC while it runs
+ * <p>
+ * the annotations are read from the method of the target class, because a JDK interface proxy invokes the interface's
+ * method. Usually, you want to use it through {@link WithMdcAdvisor}.
+ */
+public class WithMdcInterceptor implements MethodInterceptor {
+    private final Map<MethodClassKey, MdcMethodScopes> scopesByMethod = new ConcurrentHashMap<>();
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        Class<?> targetClass = invocation.getThis() == null ? null : AopUtils.getTargetClass(invocation.getThis());
+        MdcMethodScopes scopes = scopesByMethod.computeIfAbsent(new MethodClassKey(method, targetClass),
+                key -> MdcMethodScopes.forMethod(AopUtils.getMostSpecificMethod(method, targetClass)));
+        if (scopes.isEmpty()) {
+            return invocation.proceed();
+        }
+        return scopes.call(invocation.getArguments(), invocation::proceed);
+    }
+}
@@ -0,0 +1,162 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.Duration;
+import lombok.extern.slf4j.Slf4j;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+class BlockCompressedLogUnitTest {
+    private static final long START = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+
+    private final LoggerContext loggerContext = new LoggerContext();
+    private LogstashEncoder encoder;
+    private long uncompressedBytes;
+
+    @TempDir
+    Path tempDir;
+
+    private Path logFile;
+
+    @BeforeEach
+    void setUp() {
+        logFile = tempDir.resolve("logs/app.log.blocks");
+    }
+
+    @Test
+    void eventsAreReadBackInOrderAndAnIncompleteLastBlockIsIgnored() throws IOException {
+        writeEvents(200, 1000);
+        byte[] written = Files.readAllBytes(logFile);
+        Files.write(logFile, Arrays.copyOf(written, 30), StandardOpenOption.APPEND);
+
+        List<String> events = new ArrayList<>();
+        long count = BlockCompressedLogReader.forFile(logFile).read(events::add);
+
+        assertThat(count).isEqualTo(200);
+        assertThat(events).hasSize(200);
+        assertThat(events.get(0)).contains("\"message\":\"event 0\"", "\"Order\":{\"id\":0,\"customerId\":0}");
+        assertThat(events.get(199)).contains("\"message\":\"event 199\"");
+    }
+
+    @Test
+    void anIncompleteBlockIsCutOffWhenAppendingAgain() throws IOException {
+        writeEvents(200, 1000);
+        byte[] written = Files.readAllBytes(logFile);
+        Files.write(logFile, Arrays.copyOf(written, 30), StandardOpenOption.APPEND);
+
+        writeEvents(100, 1000);
+        List<String> events = new ArrayList<>();
+        BlockCompressedLogReader.forFile(logFile).read(events::add);
+
+        assertThat(events).hasSize(300);
+        assertThat(events.get(299)).contains("\"message\":\"event 99\"");
+    }
+
+    @Test
+    void aBlockIsWrittenWhenItIsOlderThanMaxBlockAge() throws Exception {
+        BlockCompressedFileAppender appender = appender(256 * 1024);
+        appender.setMaxBlockAge(Duration.buildByMilliseconds(50));
+        appender.start();
+        appender.doAppend(event(0));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (Files.size(logFile) == 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+
+        assertThat(BlockCompressedLogReader.forFile(logFile).read(event -> { })).isEqualTo(1);
+        appender.stop();
+    }
+
+    @Test
+    void blocksAreSelectedByIndexedValuesAndTime() throws IOException {
+        writeEvents(1000, 2000);
+        BlockCompressedLogReader reader = BlockCompressedLogReader.forFile(logFile);
+
+        long inCandidateBlocks = reader.withIndexedValue("Order.customerId", "7").read(event -> { });
+        long matching = reader.withIndexedValue("Order.customerId", "7")
+                .matching(StructuredLogQuery.of("Order.customerId=7"))
+                .read(event -> { });
+        long inTimeRange = reader.between(Instant.ofEpochMilli(START + 100_000), Instant.ofEpochMilli(START + 199_999)).read(event -> { });
+        long notIndexed = reader.withIndexedValue("Store", "7").read(event -> { });
+
+        assertThat(matching).isEqualTo(50);
+        assertThat(inCandidateBlocks).isBetween(50L, 200L);
+        assertThat(inTimeRange).isBetween(100L, 200L);
+        assertThat(notIndexed).isEqualTo(1000);
+    }
+
+    @Test
+    void sizeAndSeekSpeed() throws IOException {
+        int events = 50_000;
+        writeEvents(events, 256 * 1024);
+        StructuredLogQuery query = StructuredLogQuery.of("Order.customerId=42");
+        BlockCompressedLogReader reader = BlockCompressedLogReader.forFile(logFile).matching(query);
+
+        long startedAt = System.nanoTime();
+        long foundByScanning = reader.read(event -> { });
+        long scanningNanos = System.nanoTime() - startedAt;
+        startedAt = System.nanoTime();
+        long foundByIndex = reader.withIndexedValue("Order.customerId", "42").read(event -> { });
+        long indexNanos = System.nanoTime() - startedAt;
+
+        log.info("{} events, {} bytes uncompressed, {} bytes in blocks. Finding {} events took {} ms by scanning all blocks and {} ms with the index.",
+                events, uncompressedBytes, Files.size(logFile), foundByIndex, scanningNanos / 1_000_000, indexNanos / 1_000_000);
+        assertThat(foundByIndex).isEqualTo(foundByScanning).isPositive();
+        assertThat(Files.size(logFile)).isLessThan(uncompressedBytes);
+    }
+
+    /**
+     * writes one event per second, with 50 consecutive events per customer
+     */
+    private void writeEvents(int count, int blockSize) {
+        BlockCompressedFileAppender appender = appender(blockSize);
+        appender.start();
+        for (int i = 0; i < count; i++) {
+            LoggingEvent event = event(i);
+            uncompressedBytes += encoder.encode(event).length;
+            appender.doAppend(event);
+        }
+        appender.stop();
+    }
+
+    private BlockCompressedFileAppender appender(int blockSize) {
+        encoder = new LogstashEncoder();
+        encoder.addProvider(new StructuredMdcJsonProvider());
+        encoder.setContext(loggerContext);
+        encoder.start();
+        BlockCompressedFileAppender appender = new BlockCompressedFileAppender();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setFile(logFile.toString());
+        appender.setBlockSize(blockSize);
+        appender.addIndexBy("Order.customerId");
+        return appender;
+    }
+
+    private LoggingEvent event(int i) {
+        LoggingEvent event = new LoggingEvent(getClass().getName(), loggerContext.getLogger("test"), Level.INFO, "event " + i, null, null);
+        event.setTimeStamp(START + i * 1000L);
+        event.setMDCPropertyMap(Map.of("Order", JSON_PREFIX + "{\"id\":" + i + ",\"customerId\":" + i / 50 + "}"));
+        return event;
+    }
+}
@@ -0,0 +1,138 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyIntegrationTest {
+    private static final int THREADS = 8;
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+        pool.shutdownNow();
+        MdcContext.resetGlobalObjectMapper();
+        MdcContext.setSerializationBudget(Duration.ZERO, 1_000_000);
+    }
+
+    @Test
+    void contextsAreRestoredWhenOpenedClosedAndTransferredConcurrently() throws Exception {
+        Failures failures = new Failures();
+
+        runConcurrently(worker -> {
+            for (int i = 0; i < 500; i++) {
+                try (MdcContext outer = MdcContext.of("stress_outer", worker)) {
+                    String expectedOuter = MDC.get("stress_outer");
+                    try (MdcContext inner = MdcContext.of("stress_inner", i)) {
+                        AtomicReference<String> seenInTask = new AtomicReference<>();
+                        pool.submit(MdcTaskDecorator.decorate(() -> seenInTask.set(MDC.get("stress_inner")), OverwriteStrategy.JUST_OVERWRITE)).get();
+                        failures.expect(JSON_PREFIX + i, seenInTask.get());
+                    }
+                    failures.expect(null, MDC.get("stress_inner"));
+                    failures.expect(expectedOuter, MDC.get("stress_outer"));
+                }
+                failures.expect(null, MDC.get("stress_outer"));
+            }
+        });
+
+        assertThat(failures.values).isEmpty();
+        List<Callable<Map<String, String>>> pooledMdcs = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            pooledMdcs.add(MDC::getCopyOfContextMap);
+        }
+        for (Future<Map<String, String>> pooledMdc : pool.invokeAll(pooledMdcs)) {
+            assertThat(pooledMdc.get()).isNullOrEmpty();
+        }
+    }
+
+    @Test
+    void swappingTheJsonMapperRacesSafelyWithSerialization() throws Exception {
+        JsonMapper indentingMapper = Jackson3MdcJsonSerializer.createDefaultJsonMapper().rebuild()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .build();
+        JsonNode expected = new JsonMapper().readTree("{\"id\":1,\"state\":\"open\"}");
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> swapper = pool.submit(() -> {
+            while (!done.get()) {
+                MdcContext.setGlobalJsonMapper(indentingMapper);
+                MdcContext.resetGlobalObjectMapper();
+            }
+        });
+        Failures failures = new Failures();
+
+        try {
+            runConcurrently(worker -> {
+                for (int i = 0; i < 2_000; i++) {
+                    String json = MdcContext.toJson(new Order(1, "open"));
+                    failures.expect(expected, new JsonMapper().readTree(json));
+                }
+            });
+        } finally {
+            done.set(true);
+            swapper.get();
+        }
+
+        assertThat(failures.values).isEmpty();
+    }
+
+    private void runConcurrently(Worker worker) throws Exception {
+        runConcurrently(THREADS, worker);
+    }
+
+    private void runConcurrently(int threads, Worker worker) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int workerId = i;
+            futures.add(workers.submit(() -> {
+                start.await();
+                worker.run(workerId);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private interface Worker {
+        void run(int workerId) throws Exception;
+    }
+
+    private static final class Failures {
+        private final ConcurrentLinkedQueue<String> values = new ConcurrentLinkedQueue<>();
+
+        void expect(Object expected, Object actual) {
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                values.add("expected " + expected + " but was " + actual + " in " + Thread.currentThread().getName());
+            }
+        }
+    }
+
+    public record Order(long id, String state) {
+    }
+}
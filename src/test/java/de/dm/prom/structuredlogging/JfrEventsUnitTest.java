@@ -0,0 +1,120 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JfrEventsUnitTest {
+    //the library's own warnings could reach a StructuredMdcJsonProvider that other tests configured
+    private final Logger libraryLogger = (Logger) LoggerFactory.getLogger("de.dm.prom.structuredlogging");
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger jsonLogger = loggerContext.getLogger("jfr");
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        MDC.clear();
+        libraryLogger.setLevel(Level.OFF);
+        loggerContext.setMDCAdapter(MDC.getMDCAdapter());
+        LogstashEncoder encoder = new LogstashEncoder();
+        encoder.addProvider(new StructuredMdcJsonProvider());
+        encoder.setContext(loggerContext);
+        encoder.start();
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setEncoder(encoder);
+        appender.setOutputStream(new ByteArrayOutputStream());
+        appender.setContext(loggerContext);
+        appender.start();
+        jsonLogger.addAppender(appender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        libraryLogger.setLevel(null);
+        loggerContext.stop();
+    }
+
+    @Test
+    void noEventsAreRecordedByDefault() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.start();
+            try (MdcContext c = MdcContext.of("jfr_key", "value")) {
+                MdcTaskDecorator.decorate(() -> { }, OverwriteStrategy.JUST_OVERWRITE).run();
+            }
+            recording.stop();
+
+            assertThat(structuredLoggingEvents(recording)).isEmpty();
+        }
+    }
+
+    @Test
+    void eventsAreRecordedWithSettingsTemplate() throws Exception {
+        try (Reader settings = new InputStreamReader(getClass().getResourceAsStream("/structured-logging.jfc"), StandardCharsets.UTF_8);
+             Recording recording = new Recording(Configuration.create(settings))) {
+            recording.start();
+            try (MdcContext outer = MdcContext.of("jfr_key", "outer value")) {
+                try (MdcContext inner = MdcContext.of("jfr_key", "outer value")) {
+                    MdcTaskDecorator.decorate(() -> { }, OverwriteStrategy.JUST_OVERWRITE).run();
+                    jsonLogger.info("written with the structured MDC");
+                }
+            }
+            recording.stop();
+
+            List<RecordedEvent> events = structuredLoggingEvents(recording);
+            assertThat(events).extracting(event -> event.getEventType().getName()).containsExactlyInAnyOrder(
+                    "de.dm.prom.structuredlogging.MdcContextOpen",
+                    "de.dm.prom.structuredlogging.MdcContextOpen",
+                    "de.dm.prom.structuredlogging.MdcOverwrite",
+                    "de.dm.prom.structuredlogging.MdcContextTransfer",
+                    "de.dm.prom.structuredlogging.StructuredMdcWrite",
+                    "de.dm.prom.structuredlogging.MdcContextClose",
+                    "de.dm.prom.structuredlogging.MdcContextClose");
+
+            RecordedEvent openEvent = eventNamed(events, "MdcContextOpen");
+            assertThat(openEvent.getString("key")).isEqualTo("jfr_key");
+            assertThat(openEvent.getInt("serializedSize")).isEqualTo("\"outer value\"".length());
+            assertThat(eventNamed(events, "MdcOverwrite").getBoolean("sameValue")).isTrue();
+            assertThat(eventNamed(events, "MdcContextTransfer").getInt("transferredKeys")).isEqualTo(1);
+            assertThat(eventNamed(events, "StructuredMdcWrite").getInt("mdcEntries")).isEqualTo(1);
+        }
+    }
+
+    private static RecordedEvent eventNamed(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals("de.dm.prom.structuredlogging." + name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private List<RecordedEvent> structuredLoggingEvents(Recording recording) throws Exception {
+        Path file = tempDir.resolve("recording.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("de.dm.prom.structuredlogging."))
+                .toList();
+    }
+}
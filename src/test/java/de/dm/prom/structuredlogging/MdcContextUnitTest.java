@@ -10,8 +10,11 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.slf4j.MDC;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
 
 import static de.dm.infrastructure.logcapture.ExpectedException.exception;
 import static de.dm.infrastructure.logcapture.LogExpectation.error;
@@ -254,7 +257,39 @@ class MdcContextUnitTest {
             log.info("something happened");
         }
 
-        logCapture.assertLogged(error("Object cannot be serialized\\: \"I have a toString method\"", exception().expectedMessageRegex("something terrible happened").build()));
+        logCapture.assertLogged(error("Object of type java.lang.String cannot be serialized.*", exception().expectedMessageRegex("something terrible happened").build()));
+    }
+
+    @Test
+    void customJsonMapperIsUsed() throws IOException {
+        JsonMapper customJsonMapper = mock(JsonMapper.class);
+        ExampleBean objectToSerialize = ExampleBean.getExample();
+        String expectedCustomJson = "{\"content\": \"custom json string\"}";
+
+        when(customJsonMapper.writeValueAsString(objectToSerialize)).thenReturn(expectedCustomJson);
+        MdcContext.setGlobalJsonMapper(customJsonMapper);
+
+        try (MdcContext c = MdcContext.of(objectToSerialize)) {
+            assertMdcFieldContentIsCorrect("ExampleBean", expectedCustomJson);
+        }
+    }
+
+    @Test
+    void jackson2SerializesLikeJackson3() throws IOException {
+        MdcContext.useJackson2();
+
+        try (MdcContext c = MdcContext.of(ExampleBean.getExample())) {
+            assertMdcFieldContentIsCorrect("ExampleBean", SAMPLE_BEAN_JSON);
+        }
+    }
+
+    @Test
+    void datesAreSerializedAsEpochMillisLikeWithJackson2() {
+        Date date = new Date(1_700_000_000_000L);
+
+        assertThat(MdcContext.toJson(Map.of("date", date))).isEqualTo("{\"date\":1700000000000}");
+        MdcContext.useJackson2();
+        assertThat(MdcContext.toJson(Map.of("date", date))).isEqualTo("{\"date\":1700000000000}");
     }
 
     private void assertMdcFieldContentIsCorrect(String mdcFieldName, String expectedJson) throws JsonProcessingException {
@@ -0,0 +1,51 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.Test;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MdcFieldPathUnitTest {
+    private static final String ORDER_JSON = JSON_PREFIX + """
+            {"id":42,"items":[{"customerId":1}],"customer":{"address":{"city":"Karlsruhe"},"customerId":4711},"note":null}
+            """;
+
+    @Test
+    void nestedFieldsAreExtracted() {
+        MdcFieldPath path = MdcFieldPath.parse("Order.customer.customerId");
+
+        assertThat(path.getMdcKey()).isEqualTo("Order");
+        assertThat(path.extract(ORDER_JSON)).isEqualTo("4711");
+    }
+
+    @Test
+    void topLevelFieldsAreExtracted() {
+        assertThat(MdcFieldPath.parse("Order.id").extract(ORDER_JSON)).isEqualTo("42");
+    }
+
+    @Test
+    void missingNullAndNonScalarFieldsAreNull() {
+        assertThat(MdcFieldPath.parse("Order.customerId").extract(ORDER_JSON)).isNull();
+        assertThat(MdcFieldPath.parse("Order.note").extract(ORDER_JSON)).isNull();
+        assertThat(MdcFieldPath.parse("Order.customer.address").extract(ORDER_JSON)).isNull();
+        assertThat(MdcFieldPath.parse("Order.id.value").extract(ORDER_JSON)).isNull();
+        assertThat(MdcFieldPath.parse("Order.id").extract(null)).isNull();
+    }
+
+    @Test
+    void plainMdcValuesAreOnlyExtractedWithoutFieldNames() {
+        assertThat(MdcFieldPath.parse("store").extract("4711")).isEqualTo("4711");
+        assertThat(MdcFieldPath.parse("store.id").extract("4711")).isNull();
+    }
+
+    @Test
+    void invalidJsonIsNull() {
+        assertThat(MdcFieldPath.parse("Order.id").extract(JSON_PREFIX + "{\"id\":")).isNull();
+    }
+
+    @Test
+    void pathMustStartWithKey() {
+        assertThatThrownBy(() -> MdcFieldPath.parse(".id")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
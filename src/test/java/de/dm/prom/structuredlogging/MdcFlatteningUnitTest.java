@@ -0,0 +1,71 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.List;
+
+import static de.dm.prom.structuredlogging.MdcFlattening.ArrayHandling.DROPPED;
+import static de.dm.prom.structuredlogging.MdcFlattening.ArrayHandling.INDEXED;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MdcFlatteningUnitTest {
+    private static final Order ORDER = new Order(1, new Customer(7, new Address("Karlsruhe")), List.of(new Item(3), new Item(4)));
+
+    @AfterEach
+    void tearDown() {
+        MdcContext.resetFlattening();
+        MdcContext.resetGlobalObjectMapper();
+        MDC.clear();
+    }
+
+    @Test
+    void valuesAreFlattenedWhileTheyAreSerialized() {
+        MdcContext.setFlattening(MdcFlattening.defaults());
+        String expected = FLAT_JSON_PREFIX +
+                "{\"Order.id\":1,\"Order.customer.id\":7,\"Order.customer.address.city\":\"Karlsruhe\",\"Order.items\":\"[{\\\"id\\\":3},{\\\"id\\\":4}]\"}";
+
+        try (MdcContext c = MdcContext.of("Order", ORDER)) {
+            assertThat(MDC.get("Order")).isEqualTo(expected);
+            assertThat(MdcFieldPath.parse("Order.customer.id").extract(MDC.get("Order"))).isEqualTo("7");
+        }
+        MdcContext.useJackson2();
+        try (MdcContext c = MdcContext.of("Order", ORDER)) {
+            assertThat(MDC.get("Order")).isEqualTo(expected);
+        }
+        try (MdcContext c = MdcContext.of("text", "not an object")) {
+            assertThat(MDC.get("text")).isEqualTo(JSON_PREFIX + "\"not an object\"");
+        }
+    }
+
+    @Test
+    void depthArraysAndNumberOfFieldsAreLimited() {
+        MdcContext.setFlattening(MdcFlattening.defaults().withMaxDepth(1).withArrayHandling(DROPPED));
+        assertThat(MdcContext.toMdcValue("Order", ORDER))
+                .isEqualTo(FLAT_JSON_PREFIX + "{\"Order.id\":1,\"Order.customer\":\"{\\\"id\\\":7,\\\"address\\\":{\\\"city\\\":\\\"Karlsruhe\\\"}}\"}");
+
+        MdcContext.setFlattening(MdcFlattening.defaults().withArrayHandling(INDEXED).withMaxFields(4));
+        assertThat(MdcContext.toMdcValue("Order", ORDER))
+                .isEqualTo(FLAT_JSON_PREFIX + "{\"Order.id\":1,\"Order.customer.id\":7,\"Order.customer.address.city\":\"Karlsruhe\",\"Order.items.0.id\":3," +
+                        "\"Order.fields_dropped\":1}");
+
+        assertThatThrownBy(() -> MdcFlattening.defaults().withMaxDepth(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MdcFlattening.defaults().withMaxFields(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    public record Order(int id, Customer customer, List<Item> items) {
+    }
+
+    public record Customer(int id, Address address) {
+    }
+
+    public record Address(String city) {
+    }
+
+    public record Item(int id) {
+    }
+}
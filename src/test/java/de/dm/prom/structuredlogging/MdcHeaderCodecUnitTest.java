@@ -0,0 +1,132 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.infrastructure.logcapture.LogCapture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static de.dm.infrastructure.logcapture.LogExpectation.warn;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MdcHeaderCodecUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    private final MdcHeaderCodec codec = MdcHeaderCodec.forKeys("example_bean", "plain");
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void selectedKeysArePassedOnThroughTextHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        try (MdcContext c = MdcContext.of("example_bean", ExampleBean.getExample())) {
+            MDC.put("plain", "unstructured value");
+            MDC.put("not_selected", "local value");
+            codec.inject(headers::put);
+            String expectedBean = MDC.get("example_bean");
+            MDC.clear();
+
+            try (MdcSnapshot.Scope s = codec.extract(headers::get).open()) {
+                assertThat(MDC.get("example_bean")).isEqualTo(expectedBean);
+                assertThat(MDC.get("plain")).isEqualTo("unstructured value");
+                assertThat(MDC.get("not_selected")).isNull();
+            }
+        }
+        assertThat(headers).containsOnlyKeys(MdcHeaderCodec.DEFAULT_HEADER_NAME);
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    @Test
+    void largeValuesAreDeflatedInBinaryHeaders() {
+        Map<String, byte[]> recordHeaders = new HashMap<>();
+        String largeValue = "repeated content ".repeat(100);
+        try (MdcContext c = MdcContext.of("example_bean", largeValue)) {
+            recordHeaders.put(codec.getHeaderName(), codec.encode());
+        }
+
+        byte[] header = recordHeaders.get(MdcHeaderCodec.DEFAULT_HEADER_NAME);
+        assertThat(header.length).isLessThan(largeValue.length() / 10);
+        assertThat(codec.decode(header).getValues()).containsExactly(Map.entry("example_bean", JSON_PREFIX + "\"" + largeValue + "\""));
+    }
+
+    @Test
+    void flattenedValuesStayFlattened() {
+        String flatValue = FLAT_JSON_PREFIX + "{\"example_bean.name\":\"Hans\",\"example_bean.age\":42}";
+        MDC.put("example_bean", flatValue);
+        MDC.put("plain", FLAT_JSON_PREFIX + "{\"plain.nested\":{\"id\":1}}");
+        String header = codec.encodeToString();
+        MDC.clear();
+
+        assertThat(codec.decode(header).getValues()).containsExactly(Map.entry("example_bean", flatValue));
+        logCapture.assertLogged(warn("MDC key plain from header X-Structured-Mdc is ignored because its value is not valid JSON"));
+    }
+
+    @Test
+    void plainValuesWithAStructuredPrefixAreRejected() {
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(forgedPlainEntry(JSON_PREFIX + "1,\"level\":\"ERROR\",\"injected\":{"));
+        String forgedFlat = Base64.getUrlEncoder().withoutPadding().encodeToString(forgedPlainEntry(FLAT_JSON_PREFIX + "{\"plain.injected\":{"));
+
+        assertThat(codec.decode(forged).getValues()).isEmpty();
+        assertThat(codec.decode(forgedFlat).getValues()).isEmpty();
+        logCapture.assertLoggedInOrder(
+                warn("MDC key plain from header X-Structured-Mdc is ignored because its plain value has the prefix of a structured value"),
+                warn("MDC key plain from header X-Structured-Mdc is ignored because its plain value has the prefix of a structured value"));
+    }
+
+    @Test
+    void keysThatDoNotFitAreLeftOut() {
+        MdcHeaderCodec shortCodec = codec.withMaxLength(40);
+        MDC.put("example_bean", "x".repeat(100));
+        MDC.put("plain", "short");
+
+        String header = shortCodec.encodeToString();
+
+        assertThat(header.length()).isLessThanOrEqualTo(40);
+        MDC.clear();
+        assertThat(shortCodec.decode(header).getValues()).containsExactly(Map.entry("plain", "short"));
+    }
+
+    @Test
+    void invalidHeadersDoNotChangeMdc() {
+        MDC.put("example_bean", JSON_PREFIX + "{\"broken\":");
+        MDC.put("plain", "forged");
+        String forged = MdcHeaderCodec.forKeys("example_bean", "plain").encodeToString();
+        MDC.clear();
+        MDC.put("local", "value");
+
+        assertThat(MdcHeaderCodec.forKeys("example_bean").decode(forged).getValues()).containsExactly(Map.entry("local", "value"));
+        assertThat(codec.decode("not a valid header").getValues()).containsExactly(Map.entry("local", "value"));
+        assertThat(codec.decode(new byte[]{42, 1, 2}).getValues()).containsExactly(Map.entry("local", "value"));
+
+        logCapture.assertLoggedInOrder(
+                warn("MDC key example_bean from header X-Structured-Mdc is ignored because its value is not valid JSON"),
+                warn("Cannot decode structured MDC header X-Structured-Mdc: .*"),
+                warn("Cannot decode structured MDC header X-Structured-Mdc: unknown format 42"));
+    }
+
+    // format 1 (not deflated), entry type 0 (plain), key "plain" and the value, with lengths below 128
+    private static byte[] forgedPlainEntry(String value) {
+        byte[] key = "plain".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(1);
+        header.write(0);
+        header.write(key.length);
+        header.writeBytes(key);
+        header.write(bytes.length);
+        header.writeBytes(bytes);
+        return header.toByteArray();
+    }
+}
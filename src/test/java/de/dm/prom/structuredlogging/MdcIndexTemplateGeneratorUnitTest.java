@@ -0,0 +1,100 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MdcIndexTemplateGeneratorUnitTest {
+    private final ObjectMapper objectMapper = new JsonMapper();
+
+    @Test
+    void mappingIsDerivedFromTheJsonShape() {
+        String template = new MdcIndexTemplateGenerator()
+                .addKeySupplier(ExampleBeanKeySupplier.class)
+                .generate("logs-example-*");
+
+        JsonNode mappings = objectMapper.readTree(template).get("template").get("mappings");
+        assertThat(mappings.get("dynamic").asBoolean()).isFalse();
+        JsonNode properties = mappings.get("properties");
+        assertThat(properties.get("@timestamp").get("type").asString()).isEqualTo("date");
+        JsonNode exampleBean = properties.get("example_bean").get("properties");
+        assertThat(typeOf(exampleBean, "name")).isEqualTo("keyword");
+        assertThat(typeOf(exampleBean, "age")).isEqualTo("long");
+        assertThat(typeOf(exampleBean, "importantTime")).isEqualTo("date");
+        assertThat(typeOf(exampleBean, "instant")).isEqualTo("date");
+        assertThat(typeOf(exampleBean, "zonedDateTime")).isEqualTo("keyword"); //the zone id cannot be parsed by Elasticsearch
+        assertThat(typeOf(exampleBean, "month")).isEqualTo("keyword");
+        assertThat(typeOf(exampleBean, "nonEmptyOptional")).isEqualTo("keyword");
+    }
+
+    @Test
+    void conflictingShapesAreReported() {
+        MdcIndexTemplateGenerator generator = new MdcIndexTemplateGenerator()
+                .addKey("order", Order.class)
+                .addKey("order", OtherOrder.class)
+                .addKey("example_bean", ExampleBean.class)
+                .addKeySupplier(ExampleBeanKeySupplier.class);
+
+        assertThat(generator.getConflicts()).containsExactly("order.id: long vs keyword");
+        assertThatThrownBy(() -> generator.generate("logs-*"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("order.id: long vs keyword");
+    }
+
+    @Test
+    void mapsAndRecursiveTypesAreNotIndexed() {
+        String template = new MdcIndexTemplateGenerator()
+                .addKey("category", Category.class)
+                .generate("logs-*");
+
+        JsonNode category = objectMapper.readTree(template).get("template").get("mappings").get("properties").get("category").get("properties");
+        assertThat(typeOf(category, "name")).isEqualTo("keyword");
+        assertThat(category.get("parent").get("enabled").asBoolean(true)).isFalse();
+        assertThat(category.get("attributes").get("enabled").asBoolean(true)).isFalse();
+        assertThat(typeOf(category, "tags")).isEqualTo("keyword");
+    }
+
+    @Test
+    void keySuppliersAreFoundInPackages() {
+        MdcIndexTemplateGenerator generator = new MdcIndexTemplateGenerator().addPackage("de.dm.prom.structuredlogging");
+
+        JsonNode properties = objectMapper.readTree(generator.generate("logs-*")).get("template").get("mappings").get("properties");
+        assertThat(properties.get("example_bean").has("properties")).isTrue();
+        assertThat(typeOf(properties, "string_sample")).isEqualTo("keyword");
+    }
+
+    @Test
+    void redactedPropertiesAreMappedAsKeywords() {
+        String template = new MdcIndexTemplateGenerator()
+                .addKey("customer", Customer.class)
+                .generate("logs-*");
+
+        JsonNode customer = objectMapper.readTree(template).get("template").get("mappings").get("properties").get("customer").get("properties");
+        assertThat(typeOf(customer, "customerId")).isEqualTo("keyword");
+        assertThat(typeOf(customer, "pin")).isEqualTo("keyword");
+        assertThat(typeOf(customer, "visits")).isEqualTo("long");
+    }
+
+    private static String typeOf(JsonNode properties, String field) {
+        return properties.get(field).get("type").asString();
+    }
+
+    public record Order(long id, String state) {
+    }
+
+    public record OtherOrder(String id, String state, int items) {
+    }
+
+    public record Customer(@Hashed Long customerId, @Masked int pin, int visits) {
+    }
+
+    public record Category(String name, Category parent, Map<String, String> attributes, List<String> tags) {
+    }
+}
@@ -0,0 +1,79 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.infrastructure.logcapture.LogCapture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.MDC;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static de.dm.infrastructure.logcapture.ExpectedException.exception;
+import static de.dm.infrastructure.logcapture.LogExpectation.warn;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MdcLeakDetectorUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    private final ExecutorService pool = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        MdcLeakDetector.disable();
+        pool.shutdownNow();
+    }
+
+    @Test
+    void leakedKeysAreReportedWithTheirOrigin() throws Exception {
+        MdcLeakDetector.enable(1, false);
+
+        pool.submit(MdcTaskDecorator.decorate(MdcLeakDetectorUnitTest::openWithoutClosing, OverwriteStrategy.LOG_OVERWRITE)).get();
+
+        assertThat(pool.submit(() -> MDC.get("leaky")).get()).isEqualTo(JSON_PREFIX + "\"leaked value\"");
+        logCapture.assertLogged(warn("MDC key leaky was not removed by the task that put it there, so it is attached to unrelated log events in thread .*",
+                exception().expectedMessageRegex("MDC context for key leaky was opened here in thread .*").build()));
+    }
+
+    @Test
+    void leakedKeysAreRemovedIfEnabled() throws Exception {
+        MdcLeakDetector.enable(1000, true);
+
+        pool.submit(MdcTaskDecorator.decorate(() -> MDC.put("raw", "value"), OverwriteStrategy.LOG_OVERWRITE)).get();
+
+        assertThat(pool.submit(() -> MDC.get("raw")).get()).isNull();
+        logCapture.assertLogged(warn("MDC key raw was not removed .* It has been removed\\. Its origin was not sampled\\."));
+    }
+
+    @Test
+    void onlyKeysThatSurviveTheTaskAreReported() throws Exception {
+        pool.submit(() -> MDC.put("pooled", "from an earlier task")).get();
+        MdcLeakDetector.enable(1, false);
+
+        pool.submit(MdcTaskDecorator.decorate(() -> {
+            try (MdcContext inner = MdcContext.of("inner", "closed")) {
+                MDC.put("raw", "value");
+            }
+        }, OverwriteStrategy.LOG_OVERWRITE)).get();
+        try (MdcContext c = MdcContext.of("parent", "transferred")) {
+            pool.submit(MdcTaskDecorator.decorate(() -> MdcContext.update("parent", "updated without a scope of its own"),
+                    OverwriteStrategy.LOG_OVERWRITE)).get();
+        }
+
+        logCapture.assertLogged(warn("MDC key raw was not removed .* Its origin was not sampled\\."));
+        logCapture.assertNotLogged(warn("MDC key (inner|pooled|parent) .*"));
+    }
+
+    @SuppressWarnings("resource")
+    private static void openWithoutClosing() {
+        MdcContext.of("leaky", "leaked value");
+    }
+}
@@ -0,0 +1,86 @@
+package de.dm.prom.structuredlogging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.dm.infrastructure.logcapture.LogCapture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import static de.dm.infrastructure.logcapture.LogExpectation.warn;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MdcRedactionModuleUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    @AfterEach
+    void resetMapper() {
+        MdcContext.resetGlobalObjectMapper();
+        Redaction.resetSecret();
+    }
+
+    @Test
+    void annotatedPropertiesAreRedactedByDefault() {
+        String json = MdcContext.toJson(new Customer("Jane Doe", "DE89370400440532013000", "jane@example.com", new Address("Main Street 1", "Karlsruhe")));
+
+        assertThat(json).isEqualTo("{\"name\":\"***\",\"iban\":\"***3000\",\"email\":\"" + Redaction.hash("jane@example.com")
+                + "\",\"address\":{\"street\":\"Main Street 1\",\"city\":\"Karlsruhe\"}}");
+        assertThat(Redaction.hash("jane@example.com")).matches("[0-9a-f]{32}").isNotEqualTo(Redaction.hash("john@example.com"));
+    }
+
+    @Test
+    void rulesRedactPropertiesOfTypesThatCannotBeAnnotated() {
+        MdcContext.setRedactionRules(new MdcRedactionModule()
+                .mask(Address.class, "street", 0)
+                .hash(Address.class, "city")
+                .hash(Customer.class, "name")); //annotations take precedence over rules
+
+        String json = MdcContext.toJson(new Customer("Jane Doe", "DE89370400440532013000", null, new Address("Main Street 1", "Karlsruhe")));
+
+        assertThat(json).isEqualTo("{\"name\":\"***\",\"iban\":\"***3000\",\"email\":null,\"address\":{\"street\":\"***\",\"city\":\""
+                + Redaction.hash("Karlsruhe") + "\"}}");
+    }
+
+    @Test
+    void annotatedPropertiesAreRedactedWithJackson2() {
+        Customer customer = new Customer("Jane Doe", "DE89370400440532013000", "jane@example.com", new Address("Main Street 1", "Karlsruhe"));
+        String expected = MdcContext.toJson(customer);
+        MdcContext.setRedactionRules(new MdcRedactionModule().hash(Address.class, "city"));
+
+        MdcContext.useJackson2();
+        assertThat(MdcContext.toJson(customer)).isEqualTo(expected);
+        MdcContext.setGlobalObjectMapper(new ObjectMapper().registerModule(new Jackson2MdcRedactionModule()));
+        assertThat(MdcContext.toJson(customer)).isEqualTo(expected);
+        MdcContext.setGlobalObjectMapper(new ObjectMapper());
+        assertThat(MdcContext.toJson(customer)).contains("jane@example.com");
+
+        logCapture.assertLoggedInOrder(
+                warn("MDC values are serialized with Jackson 2 now, so the redaction rules that were set are not applied anymore"),
+                warn("MDC values are serialized with a Jackson 2 object mapper without the Jackson2MdcRedactionModule, so @Masked and @Hashed properties are logged in clear text"));
+    }
+
+    @Test
+    void hashesAreKeyedWithTheSecret() throws Exception {
+        MdcContext.setHashSecret("first secret");
+        String withFirstSecret = Redaction.hash("jane@example.com");
+        MdcContext.setHashSecret("second secret");
+
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec("second secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String expected = HexFormat.of().formatHex(hmac.doFinal("jane@example.com".getBytes(StandardCharsets.UTF_8)), 0, 16);
+        assertThat(Redaction.hash("jane@example.com")).isEqualTo(expected).isNotEqualTo(withFirstSecret);
+        assertThatThrownBy(() -> MdcContext.setHashSecret("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    public record Customer(@Masked String name, @Masked(visibleSuffix = 4) String iban, @Hashed String email, Address address) {
+    }
+
+    public record Address(String street, String city) {
+    }
+}
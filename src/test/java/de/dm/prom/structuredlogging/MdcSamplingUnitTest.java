@@ -0,0 +1,71 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MdcSamplingUnitTest {
+    @AfterEach
+    void tearDown() {
+        MdcSampling.disable();
+        MDC.clear();
+    }
+
+    @Test
+    void decisionsAreDeterministicAndMatchThePercentage() {
+        MdcSampling.enable("trace_id", 25);
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String traceId = UUID.randomUUID().toString();
+            MDC.put("trace_id", traceId);
+            boolean decision = MdcSampling.isSampled();
+            MDC.put("trace_id", new String(traceId)); //a different instance is not taken from the cache
+            assertThat(MdcSampling.isSampled()).isEqualTo(decision);
+            sampled += decision ? 1 : 0;
+        }
+
+        assertThat(sampled).isBetween(2_200, 2_800);
+        MDC.remove("trace_id");
+        assertThat(MdcSampling.isSampled()).isTrue();
+        assertThatThrownBy(() -> MdcSampling.enable("trace_id", 101)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void heavyValuesAreNotSerializedForRequestsThatAreNotSampled() {
+        AtomicInteger serializations = new AtomicInteger();
+        HeavyValue heavyValue = new HeavyValue(serializations);
+
+        MdcSampling.enable("trace_id", 0);
+        MDC.put("trace_id", "4711");
+        try (MdcContext c = MdcContext.ofSampled("heavy", heavyValue)) {
+            assertThat(MDC.get("heavy")).isNull();
+        }
+        assertThat(serializations).hasValue(0);
+
+        MdcSampling.enable("trace_id", 100);
+        try (MdcContext c = MdcContext.ofSampled("heavy", heavyValue)) {
+            assertThat(MDC.get("heavy")).isEqualTo(StructuredMdcJsonProvider.JSON_PREFIX + "{\"items\":42}");
+        }
+        assertThat(MDC.get("heavy")).isNull();
+        assertThat(serializations).hasValue(1);
+    }
+
+    public static class HeavyValue {
+        private final AtomicInteger serializations;
+
+        HeavyValue(AtomicInteger serializations) {
+            this.serializations = serializations;
+        }
+
+        public int getItems() {
+            serializations.incrementAndGet();
+            return 42;
+        }
+    }
+}
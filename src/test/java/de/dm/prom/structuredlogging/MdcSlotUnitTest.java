@@ -0,0 +1,54 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.infrastructure.logcapture.LogCapture;
+import de.dm.prom.structuredlogging.MdcContextUnitTest.StringKeySupplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.MDC;
+
+import java.util.List;
+
+import static de.dm.infrastructure.logcapture.LogExpectation.error;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MdcSlotUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    @Test
+    void valueIsSwappedAndRemovedWhenDone() {
+        try (MdcSlot<String> slot = MdcContext.slot(StringKeySupplier.class)) {
+            assertThat(MDC.get("string_sample")).isNull();
+            for (String value : List.of("first", "second", "third")) {
+                slot.set(value);
+                assertThat(MDC.get("string_sample")).isEqualTo(JSON_PREFIX + "\"" + value + "\"");
+            }
+        }
+        assertThat(MDC.get("string_sample")).isNull();
+    }
+
+    @Test
+    void outerValueIsRestoredOnceWhenDone() {
+        try (MdcContext outer = MdcContext.of("explicit_key", "outer value")) {
+            try (MdcSlot<Object> slot = MdcContext.slot("explicit_key")) {
+                slot.set("first");
+                slot.set("second");
+                assertThat(MDC.get("explicit_key")).isEqualTo(JSON_PREFIX + "\"second\"");
+            }
+            assertThat(MDC.get("explicit_key")).isEqualTo(JSON_PREFIX + "\"outer value\"");
+        }
+
+        logCapture.assertLogged(error("^Overwriting MDC key explicit_key in .*\\.outerValueIsRestoredOnceWhenDone\\(MdcSlotUnitTest.java:[0-9]+\\) "));
+    }
+
+    @Test
+    void unusedSlotDoesNotTouchMdc() {
+        MDC.put("explicit_key", "unmanaged value");
+        try (MdcSlot<Object> slot = MdcContext.slot("explicit_key")) {
+            assertThat(slot.getKey()).isEqualTo("explicit_key");
+        }
+        assertThat(MDC.get("explicit_key")).isEqualTo("unmanaged value");
+        MDC.remove("explicit_key");
+    }
+}
@@ -0,0 +1,72 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.prom.structuredlogging.MdcContextUnitTest.StringKeySupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MdcSnapshotUnitTest {
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void valuesAreSerializedOnlyOnce() throws Exception {
+        CountingBean bean = new CountingBean();
+        MdcSnapshot snapshot = MdcSnapshot.empty().with("counting", bean);
+
+        for (int i = 0; i < 3; i++) {
+            String value = CompletableFuture.supplyAsync(() -> snapshot.call(() -> MDC.get("counting"))).get();
+            assertThat(value).isEqualTo(JSON_PREFIX + "{\"name\":\"counted\"}");
+        }
+        assertThat(bean.serializations).hasValue(1);
+        assertThat(MDC.get("counting")).isNull();
+    }
+
+    @Test
+    void previousMdcIsRestoredWhenScopeIsClosed() {
+        MDC.put("unmanaged", "outside");
+        MdcSnapshot snapshot = MdcSnapshot.empty().with(StringKeySupplier.class, "inside");
+
+        try (MdcSnapshot.Scope s = snapshot.open()) {
+            assertThat(MDC.get("string_sample")).isEqualTo(JSON_PREFIX + "\"inside\"");
+            assertThat(MDC.get("unmanaged")).isNull();
+        }
+
+        assertThat(MDC.get("string_sample")).isNull();
+        assertThat(MDC.get("unmanaged")).isEqualTo("outside");
+    }
+
+    @Test
+    void captureContainsCurrentMdcWithoutSerializingAgain() {
+        MdcSnapshot snapshot;
+        try (MdcContext c = MdcContext.of("captured", "value")) {
+            snapshot = MdcSnapshot.capture().with("added", 42);
+        }
+        assertThat(snapshot.getValues())
+                .containsEntry("captured", JSON_PREFIX + "\"value\"")
+                .containsEntry("added", JSON_PREFIX + "42");
+
+        snapshot.apply();
+        assertThat(MDC.get("captured")).isEqualTo(JSON_PREFIX + "\"value\"");
+
+        MdcSnapshot.empty().apply();
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    static final class CountingBean {
+        private final AtomicInteger serializations = new AtomicInteger();
+
+        public String getName() {
+            serializations.incrementAndGet();
+            return "counted";
+        }
+    }
+}
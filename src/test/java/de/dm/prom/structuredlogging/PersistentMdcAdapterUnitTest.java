@@ -0,0 +1,143 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PersistentMdcAdapterUnitTest {
+    private final PersistentMdcAdapter adapter = new PersistentMdcAdapter();
+
+    @AfterEach
+    void clearAdapter() {
+        adapter.clear();
+    }
+
+    @Test
+    void putGetAndRemove() {
+        assertThat(adapter.get("key")).isNull();
+        assertThat(adapter.getCopyOfContextMap()).isNull();
+
+        adapter.put("key", "value");
+        adapter.put("other_key", "other value");
+        assertThat(adapter.get("key")).isEqualTo("value");
+        assertThat(adapter.getCopyOfContextMap()).containsOnly(Map.entry("key", "value"), Map.entry("other_key", "other value"));
+
+        adapter.remove("key");
+        assertThat(adapter.get("key")).isNull();
+        assertThat(adapter.getKeys()).containsOnly("other_key");
+
+        adapter.clear();
+        assertThat(adapter.getPropertyMap()).isEmpty();
+    }
+
+    @Test
+    void nullKeyIsRejected() {
+        assertThatThrownBy(() -> adapter.put(null, "value")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void snapshotsAreNotChangedByLaterModifications() {
+        adapter.put("key", "value");
+        Map<String, String> snapshot = adapter.getPropertyMap();
+
+        adapter.put("key", "new value");
+        adapter.put("other_key", "other value");
+
+        assertThat(snapshot).containsOnly(Map.entry("key", "value"));
+        assertThat(adapter.getPropertyMap()).containsOnly(Map.entry("key", "new value"), Map.entry("other_key", "other value"));
+        assertThatThrownBy(() -> snapshot.put("key", "changed")).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void setContextMapAdoptsSnapshotWithoutCopying() {
+        adapter.put("key", "value");
+        Map<String, String> snapshot = adapter.getPropertyMap();
+        adapter.clear();
+
+        adapter.setContextMap(snapshot);
+
+        assertThat(adapter.getPropertyMap()).isSameAs(snapshot);
+    }
+
+    @Test
+    void setContextMapCopiesOtherMaps() {
+        Map<String, String> contextMap = new HashMap<>(Map.of("key", "value"));
+
+        adapter.setContextMap(contextMap);
+        contextMap.put("key", "changed");
+
+        assertThat(adapter.get("key")).isEqualTo("value");
+    }
+
+    @Test
+    void contextIsThreadLocal() {
+        adapter.put("key", "value");
+
+        String valueInOtherThread = CompletableFuture.supplyAsync(() -> adapter.get("key")).join();
+
+        assertThat(valueInOtherThread).isNull();
+    }
+
+    @Test
+    void collidingHashesAreHandled() {
+        // all of these have the same hashCode
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (String key : keys) {
+            adapter.put(key, key.toLowerCase());
+        }
+        adapter.put("other_key", "other value");
+
+        assertThat(adapter.getPropertyMap()).hasSize(5).containsEntry("AaBB", "aabb");
+
+        adapter.remove("AaBB");
+        adapter.remove("BBBB");
+        adapter.remove("AaAa");
+
+        assertThat(adapter.getPropertyMap()).containsOnly(Map.entry("BBAa", "bbaa"), Map.entry("other_key", "other value"));
+    }
+
+    @Test
+    void behavesLikeHashMapForManyModifications() {
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            String key = "key" + random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                adapter.remove(key);
+            } else {
+                expected.put(key, "value" + i);
+                adapter.put(key, "value" + i);
+            }
+        }
+
+        Map<String, String> actual = adapter.getPropertyMap();
+        assertThat(actual).hasSize(expected.size()).isEqualTo(expected);
+        assertThat(new HashMap<>(actual)).isEqualTo(expected);
+
+        expected.keySet().forEach(adapter::remove);
+        assertThat(adapter.getPropertyMap()).isEmpty();
+    }
+
+    @Test
+    void loggingEventsUseSnapshotWithoutCopying() {
+        LoggerContext loggerContext = new LoggerContext();
+        loggerContext.setMDCAdapter(adapter);
+        adapter.put("key", "value");
+
+        LoggingEvent event = new LoggingEvent("fqcn", loggerContext.getLogger("test"), Level.INFO, "message", null, null);
+
+        assertThat(event.getMDCPropertyMap()).isSameAs(adapter.getPropertyMap());
+    }
+}
@@ -0,0 +1,118 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitingTurboFilterUnitTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("rate-limited");
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    private final RateLimitingTurboFilter filter = new RateLimitingTurboFilter();
+
+    @BeforeEach
+    void setUp() {
+        loggerContext.setMDCAdapter(MDC.getMDCAdapter());
+        appender.setContext(loggerContext);
+        appender.start();
+        loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(appender);
+        filter.setContext(loggerContext);
+        filter.addLimitBy("Order.customerId");
+        filter.setEventsPerSecond(0.001);
+        filter.setBurst(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    void eventsAreLimitedPerValue() {
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        logTimes(5, Map.of("customerId", 1));
+        logTimes(5, Map.of("customerId", 2));
+        logTimes(3, Map.of("other", 3));
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage)
+                .containsExactly("{customerId=1}", "{customerId=1}", "{customerId=2}", "{customerId=2}", "{other=3}", "{other=3}", "{other=3}");
+    }
+
+    @Test
+    void levelsBelowConfiguredLevelAreNotLimited() {
+        filter.setLevel("WARN");
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        try (MdcContext c = MdcContext.of("Order", Map.of("customerId", 1))) {
+            for (int i = 0; i < 5; i++) {
+                logger.info("info");
+            }
+        }
+
+        assertThat(appender.list).hasSize(5);
+    }
+
+    @Test
+    void disabledEventsDoNotUseUpTheBudget() {
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+        logger.setLevel(Level.INFO);
+
+        try (MdcContext c = MdcContext.of("Order", Map.of("customerId", 1))) {
+            for (int i = 0; i < 5; i++) {
+                logger.debug("disabled");
+            }
+            logger.error("error 1");
+            logger.error("error 2");
+        }
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly("error 1", "error 2");
+    }
+
+    @Test
+    void suppressedEventsAreSummarized() {
+        filter.setSummaryInterval(Duration.buildByMilliseconds(0));
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        logTimes(3, Map.of("customerId", 1));
+        logger.error("without customer");
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage)
+                .containsOnlyOnce("Log events were suppressed by rate limiting on [Order.customerId]: 1: 1")
+                .hasSize(4)
+                .last().isEqualTo("without customer");
+    }
+
+    @Test
+    void filterIsNotStartedWithoutLimitBy() {
+        RateLimitingTurboFilter unconfiguredFilter = new RateLimitingTurboFilter();
+        unconfiguredFilter.setContext(loggerContext);
+
+        unconfiguredFilter.start();
+
+        assertThat(unconfiguredFilter.isStarted()).isFalse();
+    }
+
+    private void logTimes(int times, Map<String, Integer> order) {
+        try (MdcContext c = MdcContext.of("Order", order)) {
+            for (int i = 0; i < times; i++) {
+                logger.error("{}", order);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import lombok.extern.slf4j.Slf4j;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * simulates requests that log with and without structured logging and reports latency percentiles and allocations
+ * per request
+ * <p>
+ * the workload can be sized with system properties, like
+ * {@code mvn test -Dtest=RequestLatencyIntegrationTest -Dlatency.requests=100000 -Dlatency.outputFile=/tmp/latency.log}
+ */
+@Slf4j
+class RequestLatencyIntegrationTest {
+    private static final int REQUESTS = Integer.getInteger("latency.requests", 2_000);
+    private static final int LOG_LINES_PER_REQUEST = Integer.getInteger("latency.logLinesPerRequest", 5);
+    private static final int ITEMS_PER_REQUEST = Integer.getInteger("latency.itemsPerRequest", 3);
+    private static final int FAN_OUT = Integer.getInteger("latency.fanOut", 2);
+    private static final String OUTPUT_FILE = System.getProperty("latency.outputFile"); //writes to a null sink if not set
+
+    private final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void overheadPerRequest() throws Exception {
+        Report plain = run(false);
+        Report structured = run(true);
+
+        log.info("{} requests with {} log lines, {} items and {} async tasks each:\n  plain MDC:          {}\n  structured logging: {}",
+                REQUESTS, LOG_LINES_PER_REQUEST, ITEMS_PER_REQUEST, FAN_OUT, plain, structured);
+        assertThat(structured.latencies).hasSize(REQUESTS);
+        assertThat(plain.latencies).hasSize(REQUESTS);
+    }
+
+    private Report run(boolean structured) throws Exception {
+        LoggerContext loggerContext = new LoggerContext();
+        loggerContext.setMDCAdapter(MDC.getMDCAdapter());
+        List<Thread> poolThreads = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, FAN_OUT), runnable -> {
+            Thread thread = new Thread(runnable);
+            poolThreads.add(thread);
+            return thread;
+        });
+        try (OutputStream output = OUTPUT_FILE == null ? OutputStream.nullOutputStream() : new FileOutputStream(OUTPUT_FILE, true)) {
+            Logger logger = startLogger(loggerContext, output, structured);
+            Request request = structured ? new StructuredRequest(logger, pool) : new PlainRequest(logger, pool);
+            for (int i = 0; i < REQUESTS / 4; i++) { //warm up
+                request.handle(i);
+            }
+            long[] latencies = new long[REQUESTS];
+            long allocatedBefore = allocatedBytes(poolThreads);
+            for (int i = 0; i < REQUESTS; i++) {
+                long startedAt = System.nanoTime();
+                request.handle(i);
+                latencies[i] = System.nanoTime() - startedAt;
+            }
+            return new Report(latencies, (allocatedBytes(poolThreads) - allocatedBefore) / REQUESTS);
+        } finally {
+            pool.shutdownNow();
+            loggerContext.stop();
+        }
+    }
+
+    private static Logger startLogger(LoggerContext loggerContext, OutputStream output, boolean structured) {
+        LogstashEncoder encoder = new LogstashEncoder();
+        if (structured) {
+            encoder.addProvider(new StructuredMdcJsonProvider());
+        }
+        encoder.setContext(loggerContext);
+        encoder.start();
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(output);
+        appender.start();
+        Logger logger = loggerContext.getLogger("request");
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return logger;
+    }
+
+    private long allocatedBytes(List<Thread> poolThreads) {
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (Thread thread : poolThreads) {
+            allocated += threadMXBean.getThreadAllocatedBytes(thread.getId());
+        }
+        return allocated;
+    }
+
+    private abstract static class Request {
+        protected final Logger logger;
+        private final ExecutorService pool;
+
+        Request(Logger logger, ExecutorService pool) {
+            this.logger = logger;
+            this.pool = pool;
+        }
+
+        abstract void handle(int requestNumber) throws Exception;
+
+        protected void fanOut(Runnable task) throws Exception {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < FAN_OUT; i++) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        protected void logLines(int requestNumber) {
+            for (int line = 0; line < LOG_LINES_PER_REQUEST; line++) {
+                logger.info("request {} reached step {}", requestNumber, line);
+            }
+        }
+    }
+
+    private static final class StructuredRequest extends Request {
+        StructuredRequest(Logger logger, ExecutorService pool) {
+            super(logger, pool);
+        }
+
+        @Override
+        void handle(int requestNumber) throws Exception {
+            try (MdcContext c = MdcContext.of(ExampleBeanKeySupplier.class, ExampleBean.getExample());
+                 MdcSlot<Object> itemSlot = MdcContext.slot("item")) {
+                logLines(requestNumber);
+                for (int item = 0; item < ITEMS_PER_REQUEST; item++) {
+                    itemSlot.set(new Item(item, "sku-" + requestNumber));
+                    logger.info("item processed");
+                }
+                fanOut(MdcTaskDecorator.decorate(() -> logger.info("async part done"), OverwriteStrategy.JUST_OVERWRITE));
+            }
+        }
+    }
+
+    private static final class PlainRequest extends Request {
+        PlainRequest(Logger logger, ExecutorService pool) {
+            super(logger, pool);
+        }
+
+        @Override
+        void handle(int requestNumber) throws Exception {
+            MDC.put("example_bean", ExampleBean.getExample().toString());
+            try {
+                logLines(requestNumber);
+                for (int item = 0; item < ITEMS_PER_REQUEST; item++) {
+                    MDC.put("item", new Item(item, "sku-" + requestNumber).toString());
+                    logger.info("item processed");
+                }
+                MDC.remove("item");
+                Map<String, String> context = MDC.getCopyOfContextMap();
+                fanOut(() -> {
+                    MDC.setContextMap(context);
+                    try {
+                        logger.info("async part done");
+                    } finally {
+                        MDC.clear();
+                    }
+                });
+            } finally {
+                MDC.remove("example_bean");
+            }
+        }
+    }
+
+    private record Item(int position, String sku) {
+    }
+
+    private record Report(long[] latencies, long allocatedBytesPerRequest) {
+        @Override
+        public String toString() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return String.format("p50 %d us, p90 %d us, p99 %d us, p99.9 %d us, max %d us, %d bytes allocated per request",
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                    sorted[sorted.length - 1] / 1000, allocatedBytesPerRequest);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1000;
+        }
+    }
+}
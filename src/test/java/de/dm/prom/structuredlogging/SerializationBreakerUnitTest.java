@@ -0,0 +1,130 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.infrastructure.logcapture.LogCapture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.dm.infrastructure.logcapture.ExpectedTimes.once;
+import static de.dm.infrastructure.logcapture.LogExpectation.error;
+import static de.dm.infrastructure.logcapture.LogExpectation.warn;
+import static de.dm.prom.structuredlogging.SerializationBreaker.OVER_BUDGET;
+import static de.dm.prom.structuredlogging.SerializationBreaker.UNSERIALIZABLE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SerializationBreakerUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    private final SerializationBreaker breaker = new SerializationBreaker();
+    private final AtomicInteger serializations = new AtomicInteger();
+
+    @Test
+    void failingTypesAreShortCircuited() {
+        MdcJsonSerializer failingSerializer = value -> {
+            serializations.incrementAndGet();
+            throw new IllegalStateException("could not initialize proxy - no Session");
+        };
+
+        assertThat(breaker.toJson(new Entity("first"), failingSerializer)).isEqualTo(UNSERIALIZABLE);
+        assertThat(breaker.toJson(new Entity("second"), failingSerializer)).isEqualTo(UNSERIALIZABLE);
+        assertThat(breaker.toJson(new Entity("third"), failingSerializer)).isEqualTo(UNSERIALIZABLE);
+
+        assertThat(serializations).hasValue(1);
+        logCapture.assertLogged(once(),
+                error("Object of type de.dm.prom.structuredlogging.SerializationBreakerUnitTest\\$Entity cannot be serialized, skipping this type for 60000 ms \\(0 values skipped before\\)"));
+        logCapture.assertNotLogged(error(".*first.*"));
+    }
+
+    @Test
+    void typesExceedingTheBudgetAreShortCircuitedAfterSerialization() {
+        breaker.setBudget(Duration.ofSeconds(1), 4);
+        MdcJsonSerializer countingSerializer = value -> {
+            serializations.incrementAndGet();
+            return "\"" + (value instanceof Entity entity ? entity.name() : value) + "\"";
+        };
+
+        assertThat(breaker.toJson(1, countingSerializer)).isEqualTo("\"1\"");
+        assertThat(breaker.toJson(new Entity("too long"), countingSerializer)).isEqualTo(OVER_BUDGET);
+        assertThat(breaker.toJson(new Entity("ok"), countingSerializer)).isEqualTo(OVER_BUDGET);
+        assertThat(breaker.toJson(2, countingSerializer)).isEqualTo("\"2\"");
+
+        assertThat(serializations).hasValue(3);
+        logCapture.assertLogged(warn("Serializing an object of type de.dm.prom.structuredlogging.SerializationBreakerUnitTest\\$Entity took \\d+ ms for 10 characters, which exceeds the budget.*"));
+    }
+
+    @Test
+    void firstSerializationOfATypeIsNotTimed() {
+        breaker.setBudget(Duration.ofNanos(1), 1000);
+        MdcJsonSerializer serializer = value -> "\"" + ((Entity) value).name() + "\"";
+
+        assertThat(breaker.toJson(new Entity("cold"), serializer)).isEqualTo("\"cold\"");
+        assertThat(breaker.toJson(new Entity("warm"), serializer)).isEqualTo(OVER_BUDGET);
+        assertThat(breaker.toJson(new Entity("skipped"), serializer)).isEqualTo(OVER_BUDGET);
+
+        logCapture.assertLogged(once(), warn("Serializing an object of type de.dm.prom.structuredlogging.SerializationBreakerUnitTest\\$Entity took \\d+ ms for 6 characters, which exceeds the budget.*"));
+    }
+
+    @Test
+    void slowSerializationIsNotShortCircuitedWithoutATimeBudget() {
+        MdcJsonSerializer slowSerializer = value -> {
+            Thread.sleep(20);
+            return "\"" + value + "\"";
+        };
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(breaker.toJson("slow " + i, slowSerializer)).isEqualTo("\"slow " + i + "\"");
+        }
+    }
+
+    @Test
+    void typesAreRetriedAfterCooldown() {
+        breaker.setCooldown(Duration.ZERO);
+        MdcJsonSerializer failingSerializer = value -> {
+            serializations.incrementAndGet();
+            throw new IllegalStateException("failed");
+        };
+
+        breaker.toJson(new Entity("first"), failingSerializer);
+        breaker.toJson(new Entity("second"), failingSerializer);
+
+        assertThat(serializations).hasValue(2);
+    }
+
+    @Test
+    void resetForgetsShortCircuitedTypes() {
+        breaker.toJson(new Entity("first"), value -> {
+            throw new IllegalStateException("failed");
+        });
+        breaker.reset();
+
+        assertThat(breaker.toJson(new Entity("second"), value -> "\"second\"")).isEqualTo("\"second\"");
+    }
+
+    @Test
+    void jdkTypesAreOnlyReplacedValueByValue() {
+        breaker.setBudget(Duration.ofNanos(1), 10);
+        MdcJsonSerializer serializer = value -> {
+            if (value instanceof Map<?, ?> map && map.containsKey("lazy")) {
+                throw new IllegalStateException("could not initialize proxy - no Session");
+            }
+            return value instanceof String ? "\"" + value + "\"" : "{}";
+        };
+
+        assertThat(breaker.toJson(Map.of("lazy", 1), serializer)).isEqualTo(UNSERIALIZABLE);
+        assertThat(breaker.toJson(Map.of("ok", 1), serializer)).isEqualTo("{}");
+        assertThat(breaker.toJson("much too long", serializer)).isEqualTo(OVER_BUDGET);
+        assertThat(breaker.toJson("short", serializer)).isEqualTo("\"short\"");
+        assertThat(breaker.toJson("short", serializer)).isEqualTo("\"short\"");
+
+        logCapture.assertLoggedInOrder(
+                error("Object of type java.util.ImmutableCollections\\$Map1 cannot be serialized"),
+                warn("Serializing an object of type java.lang.String produced 15 characters, which exceeds the budget"));
+    }
+
+    private record Entity(String name) {
+    }
+}
@@ -11,7 +11,9 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.MDC;
+import org.slf4j.spi.MDCAdapter;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -222,4 +224,33 @@ class SpringMdcTaskDecoratorUnitTest {
                 .assertNothingElseLogged();
     }
 
+    @Test
+    @DisplayName("decorate neither warns nor resets a thread's MDC context when the parent has none, with PersistentMdcAdapter")
+    void emptyParentContextIsNotTransferredWithPersistentMdcAdapter() throws Throwable {
+        MDCAdapter originalAdapter = MDC.getMDCAdapter();
+        setMdcAdapter(new PersistentMdcAdapter());
+        try {
+            for (OverwriteStrategy overwriteStrategy : OverwriteStrategy.values()) {
+                Runnable decoratedRunnable = new SpringMdcTaskDecorator(overwriteStrategy).decorate(
+                        collectingThrowables(() -> Assertions.assertThat(MDC.get("existing_key")).isEqualTo("existing_content")));
+
+                ThreadPoolExecutor e = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+                e.execute(() -> MDC.put("existing_key", "existing_content"));
+                e.execute(decoratedRunnable);
+                e.shutdown();
+                e.awaitTermination(10, SECONDS);
+            }
+        } finally {
+            setMdcAdapter(originalAdapter);
+        }
+
+        throwThrowablesFromThread();
+        logCapture.assertNotLogged(warn("MDC context .*"));
+    }
+
+    private static void setMdcAdapter(MDCAdapter mdcAdapter) throws ReflectiveOperationException {
+        Method setMdcAdapter = MDC.class.getDeclaredMethod("setMDCAdapter", MDCAdapter.class); //package-private in SLF4J
+        setMdcAdapter.setAccessible(true);
+        setMdcAdapter.invoke(null, mdcAdapter);
+    }
 }
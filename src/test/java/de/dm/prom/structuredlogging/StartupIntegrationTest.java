@@ -0,0 +1,76 @@
+package de.dm.prom.structuredlogging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * measures the time to the first structured log line in a fresh JVM and checks which classes are loaded on the way
+ * <p>
+ * measuring a native image requires GraalVM's native-image tool, which is not part of this build - the reachability
+ * metadata in META-INF/native-image is picked up automatically when building one
+ */
+@Slf4j
+class StartupIntegrationTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void firstStructuredLogLineOnlyLoadsJackson3() throws Exception {
+        Startup startup = start();
+
+        assertThat(startup.firstLine).contains("\"ExampleBean\":{\"name\":\"John Doe\"");
+        assertThat(startup.loadedClasses).anyMatch(line -> line.contains("de.dm.prom.structuredlogging.Jackson3MdcJsonSerializer "));
+        assertThat(startup.loadedClasses).noneMatch(line -> line.contains("com.fasterxml.jackson.databind."));
+        log.info("time to first structured log line: {} ms", startup.millisToFirstLine);
+    }
+
+    @Test
+    void taskDecoratorDoesNotInitializeSerialization() throws Exception {
+        Startup startup = start("decorator-only");
+
+        assertThat(startup.firstLine).contains("first log line");
+        assertThat(startup.loadedClasses).noneMatch(line -> line.contains("de.dm.prom.structuredlogging.Jackson3MdcJsonSerializer "));
+        log.info("time to first log line without MdcContext: {} ms", startup.millisToFirstLine);
+    }
+
+    private Startup start(String... args) throws IOException, InterruptedException {
+        Path classLoadLog = tempDir.resolve("class-load.log");
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xlog:class+load=info:file=" + classLoadLog,
+                "-Dlogback.configurationFile=logback-stdout-json.xml",
+                "-cp", System.getProperty("java.class.path"),
+                StartupProbe.class.getName()));
+        command.addAll(List.of(args));
+
+        long startedAt = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String firstLine = null;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (firstLine == null && (line = output.readLine()) != null) {
+                firstLine = line.contains("first log line") ? line : null;
+            }
+        }
+        long millisToFirstLine = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+
+        return new Startup(firstLine, millisToFirstLine, Files.readAllLines(classLoadLog));
+    }
+
+    private record Startup(String firstLine, long millisToFirstLine, List<String> loadedClasses) {
+    }
+}
@@ -0,0 +1,23 @@
+package de.dm.prom.structuredlogging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * started in a fresh JVM by {@link StartupIntegrationTest} to measure the time to the first structured log line
+ */
+final class StartupProbe {
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) {
+        Logger log = LoggerFactory.getLogger(StartupProbe.class);
+        if (args.length > 0 && args[0].equals("decorator-only")) {
+            MdcTaskDecorator.decorate(() -> log.info("first log line"), OverwriteStrategy.JUST_OVERWRITE).run();
+        } else {
+            try (MdcContext c = MdcContext.of(ExampleBean.getExample())) {
+                log.info("first log line");
+            }
+        }
+    }
+}
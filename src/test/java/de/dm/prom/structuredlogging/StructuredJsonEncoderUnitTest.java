@@ -0,0 +1,138 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.encoder.Encoder;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StructuredJsonEncoderUnitTest {
+    private static final JsonMapper JSON_MAPPER = JsonMapper.builder().build();
+
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    @Test
+    void outputMatchesLogstashEncoderWithStructuredMdcJsonProvider() {
+        LoggingEvent event = event("something in which the ExampleBean context is relevant");
+
+        ObjectNode expected = (ObjectNode) JSON_MAPPER.readTree(encodeToString(logstashEncoder(), event));
+        ObjectNode actual = (ObjectNode) JSON_MAPPER.readTree(encodeToString(startedEncoder(new StructuredJsonEncoder()), event));
+        expected.remove("@timestamp");
+        actual.remove("@timestamp");
+
+        assertThat(actual).isEqualTo(expected); //ObjectNode.equals() does not depend on the order of fields
+    }
+
+    @Test
+    void timestampIsWrittenInUtcWithMilliseconds() {
+        LoggingEvent event = event("message");
+        event.setTimeStamp(1_546_349_820_042L);
+
+        String encoded = encodeToString(startedEncoder(new StructuredJsonEncoder()), event);
+
+        assertThat(encoded).startsWith("{\"@timestamp\":\"2019-01-01T13:37:00.042Z\",\"@version\":\"1\",");
+        assertThat(encoded).endsWith("}" + System.lineSeparator());
+    }
+
+    @Test
+    void specialCharactersAreEscapedAndEncoded() {
+        String message = "\"quoted\"\\ line\nbreak\ttab \u0001 Grüße 😀";
+
+        JsonNode encoded = JSON_MAPPER.readTree(encodeToString(startedEncoder(new StructuredJsonEncoder()), event(message)));
+
+        assertThat(encoded.get("message").asString()).isEqualTo(message);
+    }
+
+    @Test
+    void fieldsCanBeRenamedAndOmittedAndStackTracesAreWritten() {
+        StructuredJsonEncoder encoder = new StructuredJsonEncoder();
+        encoder.setTimestampFieldName("");
+        encoder.setVersionFieldName("");
+        encoder.setLevelValueFieldName("");
+        encoder.setMessageFieldName("msg");
+        LoggingEvent event = event("failed");
+        event.setThrowableProxy(new ThrowableProxy(new IllegalStateException("something terrible happened")));
+
+        JsonNode encoded = JSON_MAPPER.readTree(encodeToString(startedEncoder(encoder), event));
+
+        assertThat(encoded.propertyNames()).containsExactly("msg", "logger_name", "thread_name", "level", "stack_trace", "example_bean", "store");
+        assertThat(encoded.get("stack_trace").asString()).startsWith("java.lang.IllegalStateException: something terrible happened");
+    }
+
+    @Test
+    void plainMdcValuesAreMaskedAndHashedLikeByTheProvider() {
+        StructuredJsonEncoder encoder = new StructuredJsonEncoder();
+        encoder.addMaskedKey("store=2");
+        encoder.addHashedKey("email");
+        LoggingEvent event = event("message");
+        event.getMDCPropertyMap().put("email", "jane@example.com");
+
+        JsonNode encoded = JSON_MAPPER.readTree(encodeToString(startedEncoder(encoder), event));
+
+        assertThat(encoded.get("store").asString()).isEqualTo("***11");
+        assertThat(encoded.get("email").asString()).isEqualTo(Redaction.hash("jane@example.com"));
+        assertThat(encoded.get("example_bean").isObject()).isTrue();
+    }
+
+    @Test
+    void flattenedValuesAreWrittenAsTopLevelFieldsLikeByTheProvider() {
+        LoggingEvent event = event("message");
+        event.getMDCPropertyMap().put("Order", FLAT_JSON_PREFIX + "{\"Order.id\":1,\"Order.note\":\"\\\"urgent\\\"\",\"Order.paid\":true,\"Order.coupon\":null}");
+
+        ObjectNode expected = (ObjectNode) JSON_MAPPER.readTree(encodeToString(logstashEncoder(), event));
+        ObjectNode actual = (ObjectNode) JSON_MAPPER.readTree(encodeToString(startedEncoder(new StructuredJsonEncoder()), event));
+        expected.remove("@timestamp");
+        actual.remove("@timestamp");
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(actual.get("Order.note").asString()).isEqualTo("\"urgent\"");
+        assertThat(actual.has("Order")).isFalse();
+    }
+
+    private LoggingEvent event(String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerContext(loggerContext);
+        event.setLoggerName(StructuredJsonEncoderUnitTest.class.getName());
+        event.setThreadName("main");
+        event.setLevel(Level.INFO);
+        event.setMessage(message);
+        event.setTimeStamp(System.currentTimeMillis());
+        Map<String, String> mdc = new LinkedHashMap<>();
+        mdc.put("example_bean", JSON_PREFIX + MdcContext.toJson(ExampleBean.getExample()));
+        mdc.put("store", "4711");
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    private Encoder<ILoggingEvent> logstashEncoder() {
+        LogstashEncoder encoder = new LogstashEncoder();
+        encoder.addProvider(new StructuredMdcJsonProvider());
+        encoder.setContext(loggerContext);
+        encoder.start();
+        return encoder;
+    }
+
+    private StructuredJsonEncoder startedEncoder(StructuredJsonEncoder encoder) {
+        encoder.setContext(loggerContext);
+        encoder.start();
+        return encoder;
+    }
+
+    private static String encodeToString(Encoder<ILoggingEvent> encoder, LoggingEvent event) {
+        return new String(encoder.encode(event), StandardCharsets.UTF_8);
+    }
+}
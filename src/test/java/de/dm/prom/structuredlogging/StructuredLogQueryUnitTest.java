@@ -0,0 +1,81 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StructuredLogQueryUnitTest {
+    private static final String[] LEVELS = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void conditionsAreAppliedToNestedFieldsLevelsAndNumbers() {
+        StructuredLogQuery query = StructuredLogQuery.of("Order.customerId=123", "level>=WARN", "Order.total>9.5");
+
+        assertThat(matches(query, "{\"level\":\"WARN\",\"Order\":{\"items\":[{\"customerId\":1}],\"customerId\":123,\"total\":10}}")).isTrue();
+        assertThat(matches(query, "{\"level\":\"INFO\",\"Order\":{\"customerId\":123,\"total\":10}}")).isFalse();
+        assertThat(matches(query, "{\"level\":\"ERROR\",\"Order\":{\"customerId\":\"123\",\"total\":9.25}}")).isFalse();
+        assertThat(matches(query, "{\"level\":\"ERROR\",\"Order\":{\"customerId\":1234,\"total\":10}}")).isFalse();
+        assertThat(matches(query, "{\"level\":\"ERROR\",\"Order\":{\"customerId\":123}}")).isFalse();
+        assertThat(matches(query, "not json 123")).isFalse();
+        assertThat(matches(StructuredLogQuery.of("store!=4711"), "{\"store\":\"0815\"}")).isTrue();
+    }
+
+    @Test
+    void conditionsAreAppliedToFlattenedFields() {
+        StructuredLogQuery query = StructuredLogQuery.of("Order.customer.id=123", "level>=WARN");
+
+        assertThat(matches(query, "{\"level\":\"WARN\",\"Order.id\":1,\"Order.customer.id\":123}")).isTrue();
+        assertThat(matches(query, "{\"level\":\"WARN\",\"Order.customer.id\":1234}")).isFalse();
+        assertThat(matches(query, "{\"level\":\"WARN\",\"Order\":{\"customer\":{\"id\":123}}}")).isTrue();
+    }
+
+    @Test
+    void matchingEventsAreWrittenInFileOrderAcrossChunks() throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String line = "{\"level\":\"" + LEVELS[i % 4] + "\",\"message\":\"" + "x".repeat(i % 37) + "\",\"Order\":{\"customerId\":" + i % 7 + "}}";
+            lines.add(line);
+            if (i % 7 == 3 && i % 4 >= 2) {
+                expected.add(line);
+            }
+        }
+        Path log = tempDir.resolve("app.log");
+        Files.writeString(log, String.join("\n", lines) + "\n", StandardCharsets.UTF_8);
+        StructuredLogQuery query = StructuredLogQuery.of("Order.customerId=3", "level>=WARN").withThreads(4);
+
+        for (int chunkSize : new int[]{1, 64, 1000, 1 << 20}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long matches = query.withChunkSize(chunkSize).scan(log, out);
+
+            assertThat(matches).isEqualTo(expected.size());
+            assertThat(out.toString(StandardCharsets.UTF_8).split("\n")).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void invalidConditionsAreRejected() {
+        assertThatThrownBy(() -> StructuredLogQuery.of("Order.customerId"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> StructuredLogQuery.of("Order..customerId=1"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static boolean matches(StructuredLogQuery query, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return query.matches(bytes, 0, bytes.length);
+    }
+}
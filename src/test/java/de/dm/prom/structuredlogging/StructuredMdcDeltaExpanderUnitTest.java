@@ -0,0 +1,58 @@
+package de.dm.prom.structuredlogging;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StructuredMdcDeltaExpanderUnitTest {
+    @Test
+    void deltasAreExpandedToFullEvents() throws IOException {
+        String log = String.join(System.lineSeparator(),
+                "{\"message\":\"1\",\"mdc_delta\":{\"scope\":\"a\",\"snapshot\":true,\"set\":{\"order\":{\"id\":1},\"store\":\"4711\"}}}",
+                "{\"message\":\"2\",\"mdc_delta\":{\"scope\":\"b\",\"snapshot\":true,\"set\":{\"store\":\"0815\"}}}",
+                "{\"message\":\"3\",\"mdc_delta\":{\"scope\":\"a\"}}",
+                "{\"message\":\"4\",\"mdc_delta\":{\"scope\":\"a\",\"set\":{\"order\":{\"id\":2.50}},\"removed\":[\"store\"]}}",
+                "{\"message\":\"5\"}");
+
+        assertThat(expand(log)).containsExactly(
+                "{\"message\":\"1\",\"order\":{\"id\":1},\"store\":\"4711\"}",
+                "{\"message\":\"2\",\"store\":\"0815\"}",
+                "{\"message\":\"3\",\"order\":{\"id\":1},\"store\":\"4711\"}",
+                "{\"message\":\"4\",\"order\":{\"id\":2.50}}",
+                "{\"message\":\"5\"}");
+    }
+
+    @Test
+    void scopesWithoutSnapshotAreMarkedIncomplete() throws IOException {
+        String log = String.join(System.lineSeparator(),
+                "{\"message\":\"1\",\"mdc_delta\":{\"scope\":\"a\",\"set\":{\"store\":\"4711\"}}}",
+                "{\"message\":\"2\",\"mdc_delta\":{\"scope\":\"a\",\"snapshot\":true,\"set\":{\"store\":\"4711\"}}}");
+
+        assertThat(expand(log)).containsExactly(
+                "{\"message\":\"1\",\"store\":\"4711\",\"mdc_incomplete\":true}",
+                "{\"message\":\"2\",\"store\":\"4711\"}");
+    }
+
+    @Test
+    void linesThatAreNotJsonArePassedOn() throws IOException {
+        String log = String.join(System.lineSeparator(),
+                "{\"message\":\"1\",\"mdc_delta\":{\"scope\":\"a\",\"snapshot\":true,\"set\":{\"store\":\"4711\"}}}",
+                "plain text that mentions mdc_delta",
+                "{\"message\":\"2\",\"mdc_delta\":{\"scope\":\"a\"");
+
+        assertThat(expand(log)).containsExactly(
+                "{\"message\":\"1\",\"store\":\"4711\"}",
+                "plain text that mentions mdc_delta",
+                "{\"message\":\"2\",\"mdc_delta\":{\"scope\":\"a\"");
+    }
+
+    private static String[] expand(String log) throws IOException {
+        StringWriter out = new StringWriter();
+        StructuredMdcDeltaExpander.expand(new StringReader(log), out);
+        return out.toString().split(System.lineSeparator());
+    }
+}
@@ -1,8 +1,10 @@
 package de.dm.prom.structuredlogging;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.joran.spi.JoranException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -18,12 +20,22 @@ import org.slf4j.MDC;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
 import org.springframework.util.ResourceUtils;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.FLAT_JSON_PREFIX;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @ExtendWith(OutputCaptureExtension.class)
 // LogCapture is not applicable here because the actual output format of the log is relevant
@@ -100,4 +112,142 @@ class StructuredMdcJsonProviderUnitTest {
             assertThat(actualJson.toPrettyString()).isEqualTo(expectedJson.toPrettyString());
         }
     }
+
+    @Test
+    void keysWithMinimumLevelAreOnlyWrittenFromThatLevelOn() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.addMinimumLevel("order = WARN");
+        Map<String, String> mdc = Map.of("order", JSON_PREFIX + "{\"id\":1}", "store", "4711");
+
+        assertThat(write(provider, Level.INFO, mdc)).isEqualTo("{\"store\":\"4711\"}");
+        assertThat(write(provider, Level.WARN, mdc)).isEqualTo("{\"store\":\"4711\",\"order\":{\"id\":1}}");
+    }
+
+    @Test
+    void unknownMinimumLevelsAreRejected() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+
+        assertThatThrownBy(() -> provider.addMinimumLevel("order = WRAN")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void plainValuesOfSelectedKeysAreRedacted() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.addMaskedKey("iban = 4");
+        provider.addMaskedKey("name");
+        provider.addHashedKey("email");
+        Map<String, String> mdc = new LinkedHashMap<>();
+        mdc.put("iban", "DE89370400440532013000");
+        mdc.put("name", "Jane Doe");
+        mdc.put("email", "jane@example.com");
+        mdc.put("store", "4711");
+
+        assertThat(write(provider, Level.INFO, mdc)).isEqualTo("{\"iban\":\"***3000\",\"name\":\"***\",\"email\":\""
+                + Redaction.hash("jane@example.com") + "\",\"store\":\"4711\"}");
+    }
+
+    @Test
+    void samplingDecisionIsRecorded() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.setSamplingFieldName("sampled");
+        MdcSampling.enable("trace_id", 0);
+        try {
+            assertThat(write(provider, Level.INFO, Map.of("trace_id", "4711"))).isEqualTo("{\"trace_id\":\"4711\",\"sampled\":false}");
+            assertThat(write(provider, Level.INFO, Map.of("store", "4711"))).isEqualTo("{\"store\":\"4711\"}");
+        } finally {
+            MdcSampling.disable();
+        }
+        assertThat(write(provider, Level.INFO, Map.of("trace_id", "4711"))).isEqualTo("{\"trace_id\":\"4711\"}");
+    }
+
+    @Test
+    void flattenedValuesAreWrittenAsTopLevelFields() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        Map<String, String> mdc = new LinkedHashMap<>();
+        mdc.put("store", "4711");
+        mdc.put("Order", FLAT_JSON_PREFIX + "{\"Order.id\":1,\"Order.customer.id\":7}");
+        mdc.put("Item", JSON_PREFIX + "{\"Item.id\":2}");
+        mdc.put("empty", FLAT_JSON_PREFIX + "{}");
+
+        assertThat(write(provider, Level.INFO, mdc))
+                .isEqualTo("{\"store\":\"4711\",\"Order.id\":1,\"Order.customer.id\":7,\"Item\":{\"Item.id\":2}}");
+    }
+
+    @Test
+    void largestJsonFieldsAreDroppedFirst() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.setMaxJsonLength(20);
+        Map<String, String> mdc = new LinkedHashMap<>();
+        mdc.put("small", JSON_PREFIX + "{\"id\":1}");
+        mdc.put("large", JSON_PREFIX + "{\"items\":[1,2,3,4,5,6]}");
+        mdc.put("medium", JSON_PREFIX + "{\"id\":12345}");
+
+        assertThat(write(provider, Level.INFO, mdc)).isEqualTo("{\"small\":{\"id\":1},\"medium\":{\"id\":12345},\"json_dropped\":[\"large\"]}");
+    }
+
+    @Test
+    void jsonLengthIsCountedInUtf8Bytes() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.setMaxJsonLength(20);
+        Map<String, String> mdc = new LinkedHashMap<>();
+        mdc.put("ascii", JSON_PREFIX + "{\"city\":\"Koln\"}");
+        mdc.put("umlauts", JSON_PREFIX + "{\"city\":\"K\u00f6\u00f6\u00f6\"}"); //as many chars, but 3 bytes more
+
+        assertThat(write(provider, Level.INFO, mdc)).isEqualTo("{\"ascii\":{\"city\":\"Koln\"},\"json_dropped\":[\"umlauts\"]}");
+    }
+
+    @Test
+    void deltaEncodingOnlyWritesChangedKeys() {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.setDeltaEncoding(true);
+        provider.setSnapshotInterval(3);
+        provider.start();
+        String order = JSON_PREFIX + "{\"id\":1}";
+
+        String first = write(provider, Level.INFO, Map.of("order", order));
+        String scope = first.replaceAll(".*\"scope\":\"([^\"]+)\".*", "$1");
+
+        assertThat(first).isEqualTo("{\"mdc_delta\":{\"scope\":\"" + scope + "\",\"snapshot\":true,\"set\":{\"order\":{\"id\":1}}}}");
+        assertThat(write(provider, Level.INFO, Map.of("order", order)))
+                .isEqualTo("{\"mdc_delta\":{\"scope\":\"" + scope + "\"}}");
+        assertThat(write(provider, Level.INFO, Map.of("store", "4711")))
+                .isEqualTo("{\"mdc_delta\":{\"scope\":\"" + scope + "\",\"set\":{\"store\":\"4711\"},\"removed\":[\"order\"]}}");
+        assertThat(write(provider, Level.INFO, Map.of("store", "4711")))
+                .isEqualTo("{\"mdc_delta\":{\"scope\":\"" + scope + "\",\"snapshot\":true,\"set\":{\"store\":\"4711\"}}}");
+        assertThat(write(provider, Level.INFO, Map.of())).isEqualTo("{}");
+        assertThat(write(provider, Level.INFO, Map.of("store", "4711"))).doesNotContain(scope);
+    }
+
+    @Test
+    void threadsWithTheSameNameHaveSeparateDeltaScopes() throws InterruptedException {
+        StructuredMdcJsonProvider provider = new StructuredMdcJsonProvider();
+        provider.setDeltaEncoding(true);
+        provider.start();
+        Map<String, String> mdc = Map.of("order", JSON_PREFIX + "{\"id\":1}");
+        List<String> written = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            Thread thread = new Thread(() -> written.add(write(provider, Level.INFO, mdc)), "worker");
+            thread.start();
+            thread.join();
+        }
+
+        assertThat(written).allSatisfy(json -> assertThat(json).contains("\"snapshot\":true"));
+        assertThat(written.get(0).replaceAll(".*\"scope\":\"([^\"]+)\".*", "$1"))
+                .isNotEqualTo(written.get(1).replaceAll(".*\"scope\":\"([^\"]+)\".*", "$1"));
+    }
+
+    private static String write(StructuredMdcJsonProvider provider, Level level, Map<String, String> mdc) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setThreadName(Thread.currentThread().getName());
+        event.setMDCPropertyMap(mdc);
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = JsonMapper.builder().build().createGenerator(json)) {
+            generator.writeStartObject();
+            provider.writeTo(generator, event);
+            generator.writeEndObject();
+        }
+        return json.toString();
+    }
 }
@@ -0,0 +1,163 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TailBufferingAppenderUnitTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("tail-buffering");
+    private final ListAppender<ILoggingEvent> target = new ListAppender<>();
+    private final TailBufferingAppender appender = new TailBufferingAppender();
+
+    @BeforeEach
+    void setUp() {
+        loggerContext.setMDCAdapter(MDC.getMDCAdapter());
+        target.setContext(loggerContext);
+        target.start();
+        appender.setContext(loggerContext);
+        appender.setScopeKey("request");
+        appender.setMaxEventsPerScope(3);
+        appender.addAppender(target);
+        appender.start();
+        logger.setAdditive(false);
+        logger.setLevel(Level.DEBUG);
+        logger.addAppender(appender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        appender.stop();
+        MDC.clear();
+    }
+
+    @Test
+    void bufferedEventsAreOnlyPassedOnWhenAnErrorHappens() {
+        try (MdcContext c = MdcContext.of("request", "first request")) {
+            logger.debug("debug 1");
+            logger.info("info");
+            logger.debug("debug 2");
+            assertThat(messages()).containsExactly("info");
+
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("info", "debug 1", "debug 2", "error");
+        assertThat(target.list.get(1).getMDCPropertyMap()).containsEntry("request", StructuredMdcJsonProvider.JSON_PREFIX + "\"first request\"");
+    }
+
+    @Test
+    void bufferIsDroppedWhenScopeIsClosed() {
+        try (MdcContext c = MdcContext.of("request", "same request")) {
+            logger.debug("dropped");
+        }
+        try (MdcContext c = MdcContext.of("request", "same request")) {
+            logger.debug("kept");
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("kept", "error");
+    }
+
+    @Test
+    void concurrentScopesWithTheSameValueHaveSeparateBuffers() throws InterruptedException {
+        try (MdcContext c = MdcContext.of("request", "same request")) {
+            logger.debug("kept");
+            Thread other = new Thread(() -> {
+                try (MdcContext otherContext = MdcContext.of("request", "same request")) {
+                    logger.debug("dropped with the other scope");
+                }
+            });
+            other.start();
+            other.join();
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("kept", "error");
+    }
+
+    @Test
+    void aSlotKeepsItsBufferWhileItsValueChanges() {
+        try (MdcSlot<Object> slot = MdcContext.slot("request")) {
+            slot.set("item 1");
+            logger.debug("debug 1");
+            slot.set("item 2");
+            logger.debug("debug 2");
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("debug 1", "debug 2", "error");
+    }
+
+    @Test
+    void onlyTheMostRecentEventsAreKept() {
+        try (MdcContext c = MdcContext.of("request", "chatty request")) {
+            for (int i = 1; i <= 5; i++) {
+                logger.debug("debug {}", i);
+            }
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("debug 3", "debug 4", "debug 5", "error");
+    }
+
+    @Test
+    void eventsWithoutScopeAreNotBuffered() {
+        logger.debug("debug without scope");
+
+        assertThat(messages()).containsExactly("debug without scope");
+    }
+
+    @Test
+    void turboFilterLetsEventsThroughOnlyInScope() {
+        TailBufferTurboFilter filter = new TailBufferTurboFilter();
+        filter.setScopeKey("request");
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+        logger.setLevel(Level.INFO);
+
+        logger.debug("not logged at all");
+        try (MdcContext c = MdcContext.of("request", "failing request")) {
+            logger.debug("buffered");
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("buffered", "error");
+    }
+
+    @Test
+    void turboFilterOnlyLetsEventsOfSelectedLoggersThrough() {
+        TailBufferTurboFilter filter = new TailBufferTurboFilter();
+        filter.setScopeKey("request");
+        filter.addLogger("tail-buffering");
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+        logger.setLevel(Level.INFO);
+        Logger library = loggerContext.getLogger("tail-buffering-library");
+        library.setLevel(Level.INFO);
+        library.setAdditive(false);
+        library.addAppender(appender);
+
+        try (MdcContext c = MdcContext.of("request", "failing request")) {
+            library.debug("not buffered");
+            loggerContext.getLogger("tail-buffering.child").debug("buffered");
+            logger.error("error");
+        }
+
+        assertThat(messages()).containsExactly("buffered", "error");
+    }
+
+    private List<String> messages() {
+        return target.list.stream().map(ILoggingEvent::getFormattedMessage).toList();
+    }
+}
@@ -0,0 +1,135 @@
+package de.dm.prom.structuredlogging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.MDC;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TargetedDebugTurboFilterUnitTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("targeted");
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    private final TargetedDebugTurboFilter filter = new TargetedDebugTurboFilter();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        loggerContext.setMDCAdapter(MDC.getMDCAdapter());
+        loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.INFO);
+        appender.setContext(loggerContext);
+        appender.start();
+        loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(appender);
+        filter.setContext(loggerContext);
+    }
+
+    @AfterEach
+    void tearDown() {
+        filter.stop();
+        MDC.clear();
+    }
+
+    @Test
+    void debugIsEnabledOnlyForMatchingValues() {
+        filter.addRule("Store.id == 4711");
+        filter.addRule("Order.customerId in {1, \"2\"}");
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        logDebugWith("Store", Map.of("id", 4711));
+        logDebugWith("Store", Map.of("id", 4712));
+        logDebugWith("Order", Map.of("customerId", 2));
+        logDebugWith("Order", Map.of("customerId", 3));
+        logger.debug("without context");
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage)
+                .containsExactly("{id=4711}", "{customerId=2}");
+    }
+
+    @Test
+    void isDebugEnabledRespectsRules() {
+        filter.addRule("Store.id == 4711");
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        try (MdcContext c = MdcContext.of("Store", Map.of("id", 4711))) {
+            assertThat(logger.isDebugEnabled()).isTrue();
+            assertThat(logger.isTraceEnabled()).isFalse();
+        }
+        assertThat(logger.isDebugEnabled()).isFalse();
+    }
+
+    @Test
+    void rulesFileIsReloadedWhenItChanges() throws Exception {
+        Path rulesFile = tempDir.resolve("rules.txt");
+        Files.writeString(rulesFile, "# diagnosing a store\nStore.id == 4711\n");
+        filter.setRulesFile(rulesFile.toString());
+        filter.setReloadInterval(Duration.buildByMilliseconds(10));
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        logDebugWith("Store", Map.of("id", 4711));
+        Files.writeString(rulesFile, "Store.id == 4712\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.from(Instant.now().plusSeconds(1)));
+        awaitStatus("Loaded rules from", 2);
+        logDebugWith("Store", Map.of("id", 4711));
+        logDebugWith("Store", Map.of("id", 4712));
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage)
+                .containsExactly("{id=4711}", "{id=4712}");
+    }
+
+    @Test
+    void invalidRulesFileKeepsPreviousRules() throws Exception {
+        Path rulesFile = tempDir.resolve("rules.txt");
+        Files.writeString(rulesFile, "Store.id == 4711\n");
+        filter.setRulesFile(rulesFile.toString());
+        filter.setReloadInterval(Duration.buildByMilliseconds(10));
+        filter.start();
+        loggerContext.addTurboFilter(filter);
+
+        Files.writeString(rulesFile, "Store.id is 4712\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.from(Instant.now().plusSeconds(1)));
+        awaitStatus("Could not load rules from", 1);
+        logDebugWith("Store", Map.of("id", 4711));
+
+        assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly("{id=4711}");
+    }
+
+    private void awaitStatus(String messagePrefix, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (countStatus(messagePrefix) < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        assertThat(countStatus(messagePrefix)).isGreaterThanOrEqualTo(count);
+    }
+
+    private long countStatus(String messagePrefix) {
+        return loggerContext.getStatusManager().getCopyOfStatusList().stream()
+                .filter(status -> status.getMessage().startsWith(messagePrefix))
+                .count();
+    }
+
+    private void logDebugWith(String key, Map<String, Integer> value) {
+        try (MdcContext c = MdcContext.of(key, value)) {
+            logger.debug("{}", value);
+        }
+    }
+}
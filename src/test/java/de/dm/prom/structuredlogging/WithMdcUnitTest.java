@@ -0,0 +1,119 @@
+package de.dm.prom.structuredlogging;
+
+import de.dm.prom.structuredlogging.MdcContextUnitTest.StringKeySupplier;
+import de.dm.infrastructure.logcapture.LogCapture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.MDC;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.Method;
+
+import static de.dm.infrastructure.logcapture.LogExpectation.warn;
+import static de.dm.prom.structuredlogging.StructuredMdcJsonProvider.JSON_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WithMdcUnitTest {
+    @RegisterExtension
+    public LogCapture logCapture = LogCapture.forCurrentPackage();
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void parametersAreInMdcDuringPlainJavaProxyCalls() {
+        OrderService service = MdcProxy.wrap(OrderService.class, new MdcReadingOrderService());
+
+        assertThat(service.process("4711", 3, "not in MDC")).isEqualTo(JSON_PREFIX + "\"4711\", " + JSON_PREFIX + "3");
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    @Test
+    void parametersAreInMdcDuringSpringProxyCalls() {
+        ProxyFactory proxyFactory = new ProxyFactory(new MdcReadingOrderService());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvisor(new WithMdcAdvisor());
+        MdcReadingOrderService service = (MdcReadingOrderService) proxyFactory.getProxy();
+
+        assertThat(service.process("4711", 3, "not in MDC")).isEqualTo(JSON_PREFIX + "\"4711\", " + JSON_PREFIX + "3");
+        assertThat(service.cancel("4712")).isEqualTo(JSON_PREFIX + "\"4712\"");
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    @Test
+    void parametersOfTheTargetClassAreInMdcDuringSpringInterfaceProxyCalls() {
+        ProxyFactory proxyFactory = new ProxyFactory(new MdcReadingOrderService());
+        proxyFactory.addAdvisor(new WithMdcAdvisor());
+        CancelService service = (CancelService) proxyFactory.getProxy();
+
+        assertThat(AopUtils.isJdkDynamicProxy(service)).isTrue();
+        assertThat(service.cancel("4712")).isEqualTo(JSON_PREFIX + "\"4712\"");
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    @Test
+    void overwritingIsReportedForTheAnnotatedMethod() {
+        ProxyFactory proxyFactory = new ProxyFactory(new MdcReadingOrderService());
+        proxyFactory.addAdvisor(new WithMdcAdvisor());
+        CancelService service = (CancelService) proxyFactory.getProxy();
+
+        try (MdcContext c = MdcContext.of("string_sample", "4712")) {
+            service.cancel("4712");
+        }
+
+        logCapture.assertLogged(warn("^Overwriting MDC key string_sample in de\\.dm\\.prom\\.structuredlogging\\.WithMdcUnitTest\\$MdcReadingOrderService\\.cancel\\(@WithMdc\\) .*"));
+    }
+
+    @Test
+    void exceptionsArePassedOnAndMdcIsRestored() {
+        OrderService service = MdcProxy.wrap(OrderService.class, new MdcReadingOrderService());
+
+        assertThatThrownBy(() -> service.fail("4711")).isInstanceOf(IllegalStateException.class).hasMessage("failed for 4711");
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+
+    @Test
+    void keysAreResolvedOncePerMethod() throws NoSuchMethodException {
+        Method method = OrderService.class.getMethod("process", String.class, Integer.class, String.class);
+
+        MdcMethodScopes scopes = MdcMethodScopes.forMethod(method);
+
+        assertThat(scopes).isSameAs(MdcMethodScopes.forMethod(method));
+        assertThat(scopes.getMdcKeys()).containsExactly("order_id", "Integer");
+        assertThat(MdcMethodScopes.forMethod(MdcReadingOrderService.class.getMethod("cancel", String.class)).getMdcKeys())
+                .containsExactly("string_sample");
+    }
+
+    public interface OrderService {
+        String process(@WithMdc("order_id") String orderId, @WithMdc Integer items, String comment);
+
+        String fail(@WithMdc("order_id") String orderId);
+    }
+
+    public interface CancelService {
+        String cancel(String orderId);
+    }
+
+    public static class MdcReadingOrderService implements OrderService, CancelService {
+        @Override
+        public String process(@WithMdc("order_id") String orderId, @WithMdc Integer items, String comment) {
+            assertThat(MDC.get("comment")).isNull();
+            return MDC.get("order_id") + ", " + MDC.get("Integer");
+        }
+
+        @Override
+        public String fail(String orderId) {
+            throw new IllegalStateException("failed for " + orderId);
+        }
+
+        @Override
+        public String cancel(@WithMdc(keySupplier = StringKeySupplier.class) String orderId) {
+            return MDC.get("string_sample");
+        }
+    }
+}